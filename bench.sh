@@ -0,0 +1,10 @@
+#!/usr/bin/env sh
+# Builds the app and the JMH benchmarks, then runs them headless.
+# Results go to bench-results/<git revision>.json so runs can be compared across releases.
+# Extra arguments are passed to JMH, e.g. ./bench.sh JsonCodec -p size=1048576
+set -e
+cd "$(dirname "$0")"
+mvn -B -q package
+mkdir -p bench-results
+rev=$(git rev-parse --short HEAD 2>/dev/null || echo local)
+java -Djava.awt.headless=true -jar benchmarks/target/benchmarks.jar -rf json -rff "bench-results/$rev.json" "$@"
@@ -0,0 +1,89 @@
+package devpilot.bench;
+
+import java.awt.Color;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+/**
+ * Method handles into the application classes.
+ *
+ * The app lives in the unnamed package, which a named package cannot import, and JMH rejects
+ * benchmark classes in the unnamed package. Both sides share the classpath's unnamed module, so a
+ * private lookup reaches the package-private methods. The handles are static final and erased to
+ * Object types, so benchmarks call them with invokeExact and the JIT inlines them like direct calls.
+ */
+final class App {
+
+    static final MethodHandle BUILD_PROMPT = staticMethod("AnalysisPipeline", "buildPrompt", CharSequence.class, CharSequence.class, String.class);
+    static final MethodHandle COMPACT = staticMethod("PromptCompactor", "compact", appClass("PromptCompactor$Result"), CharSequence.class, String.class);
+    static final MethodHandle PARSE_CONTENT = staticMethod("AnalysisPipeline", "parseContentFromResponse", String.class, String.class);
+    static final MethodHandle REQUEST_BODY = staticMethod("ChatCompletion", "requestBody", String.class, String.class, CharSequence.class, boolean.class);
+
+    static final MethodHandle WRITE_JSON_STRING = staticMethod("JsonWriter", "writeString", void.class, CharSequence.class, StringBuilder.class);
+    static final MethodHandle NEW_JSON_READER = constructor("JsonReader", CharSequence.class);
+    static final MethodHandle NEXT_STRING = method("JsonReader", "nextString", String.class);
+
+    static final MethodHandle PIECE_TABLE_OF = staticMethod("PieceTable", "of", appClass("PieceTable"), CharSequence.class);
+    static final MethodHandle PIECE_TABLE_INSERT = method("PieceTable", "insert", appClass("PieceTable"), int.class, CharSequence.class);
+    static final MethodHandle PIECE_TABLE_LINE_START = method("PieceTable", "lineStart", int.class, int.class);
+    static final MethodHandle PIECE_TABLE_LINE_OF_OFFSET = method("PieceTable", "lineOfOffset", int.class, int.class);
+
+    static final MethodHandle NEW_HTML_PAGE = constructor("HtmlPage", Color.class, Color.class, Color.class, Color.class);
+    static final MethodHandle WRAP_HTML = method("HtmlPage", "wrap", String.class, String.class);
+
+    static final MethodHandle OPEN_HISTORY = constructor("HistoryStore", Path.class);
+    static final MethodHandle HISTORY_APPEND = method("HistoryStore", "append", int.class, CharSequence.class, String.class, String.class, String.class, LocalDateTime.class);
+    static final MethodHandle HISTORY_SIZE = method("HistoryStore", "size", int.class);
+    static final MethodHandle HISTORY_GET = method("HistoryStore", "get", appClass("HistoryEntry"), int.class);
+    static final MethodHandle HISTORY_CLOSE = method("HistoryStore", "close", void.class);
+    static final MethodHandle ENTRY_RESPONSE = method("HistoryEntry", "response", String.class);
+    static final MethodHandle ENTRY_CODE = method("HistoryEntry", "code", String.class);
+
+    private App() {
+    }
+
+    private static Class<?> appClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("Application class " + name + " is not on the classpath", ex);
+        }
+    }
+
+    private static MethodHandles.Lookup lookupIn(Class<?> type) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+
+    private static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... params) {
+        Class<?> type = appClass(className);
+        try {
+            MethodHandle handle = lookupIn(type).findStatic(type, name, MethodType.methodType(returnType, params));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Cannot bind " + className + "." + name, ex);
+        }
+    }
+
+    private static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... params) {
+        Class<?> type = appClass(className);
+        try {
+            MethodHandle handle = lookupIn(type).findVirtual(type, name, MethodType.methodType(returnType, params));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Cannot bind " + className + "." + name, ex);
+        }
+    }
+
+    private static MethodHandle constructor(String className, Class<?>... params) {
+        Class<?> type = appClass(className);
+        try {
+            MethodHandle handle = lookupIn(type).findConstructor(type, MethodType.methodType(void.class, params));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Cannot bind new " + className, ex);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package devpilot.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * History log at scale: appending (each append is fsynced), random metadata and body lookups,
+ * and reopening the store, which reads the offset index and checks the log tail.
+ * Every entry has the same code, so it is stored once and getCode mostly hits the hot cache.
+ * Responses are stored per entry, so random getResponse lookups mostly miss it and measure inflating
+ * a deflated body.
+ * The store lives under java.io.tmpdir; point that at the disk you care about.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class HistoryStoreBenchmark {
+
+    @Param({"1000", "100000"})
+    int entries;
+
+    private Path dir;
+    private Object store;
+    private String code;
+    private String response;
+    private final LocalDateTime timestamp = LocalDateTime.of(2024, 1, 1, 12, 0);
+    private int[] lookups;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        dir = Files.createTempDirectory("devpilot-bench-history");
+        store = App.OPEN_HISTORY.invokeExact((Object) dir);
+        code = Samples.code(2048);
+        response = Samples.response(4096);
+        int last = -1;
+        for (int i = 0; i < entries; i++) {
+            last = (int) App.HISTORY_APPEND.invokeExact(store, (Object) code, (Object) "Find Bugs", (Object) "openai/gpt-4o-mini", (Object) response, (Object) timestamp);
+        }
+        if (last != entries - 1) {
+            throw new IllegalStateException("Expected " + entries + " entries in a fresh store, last index was " + last);
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        lookups = new int[4096];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = random.nextInt(entries);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        App.HISTORY_CLOSE.invokeExact(store);
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException ex) {
+                    // Left for the OS to clean up with the rest of the temp dir
+                }
+            });
+        }
+    }
+
+    private int nextIndex() {
+        return lookups[next++ & (lookups.length - 1)];
+    }
+
+    @Benchmark
+    public int append() throws Throwable {
+        return (int) App.HISTORY_APPEND.invokeExact(store, (Object) code, (Object) "Find Bugs", (Object) "openai/gpt-4o-mini", (Object) response, (Object) timestamp);
+    }
+
+    @Benchmark
+    public Object get() throws Throwable {
+        return App.HISTORY_GET.invokeExact(store, nextIndex());
+    }
+
+    @Benchmark
+    public Object getResponse() throws Throwable {
+        Object entry = App.HISTORY_GET.invokeExact(store, nextIndex());
+        return App.ENTRY_RESPONSE.invokeExact(entry);
+    }
+
+    @Benchmark
+    public Object getCode() throws Throwable {
+        Object entry = App.HISTORY_GET.invokeExact(store, nextIndex());
+        return App.ENTRY_CODE.invokeExact(entry);
+    }
+
+    @Benchmark
+    public int reopen() throws Throwable {
+        Object reopened = App.OPEN_HISTORY.invokeExact((Object) dir);
+        int size = (int) App.HISTORY_SIZE.invokeExact(reopened);
+        App.HISTORY_CLOSE.invokeExact(reopened);
+        return size;
+    }
+}
@@ -0,0 +1,64 @@
+package devpilot.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON string escaping and unescaping and full response parsing, for responses of 1 KB to 5 MB.
+ * The old escapeJson/unescapeJson helpers were replaced by JsonWriter.writeString and
+ * JsonReader.nextString, so those are what escape and unescape measure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class JsonCodecBenchmark {
+
+    @Param({"1024", "65536", "1048576", "5242880"})
+    int size;
+
+    private String content;
+    private String quoted;
+    private String responseBody;
+    private StringBuilder out;
+
+    @Setup
+    public void setUp() throws Throwable {
+        content = Samples.response(size);
+        StringBuilder sb = new StringBuilder();
+        App.WRITE_JSON_STRING.invokeExact((Object) content, (Object) sb);
+        quoted = sb.toString();
+        responseBody = Samples.responseBody(content);
+        out = new StringBuilder(quoted.length());
+    }
+
+    @Benchmark
+    public StringBuilder escape() throws Throwable {
+        out.setLength(0);
+        App.WRITE_JSON_STRING.invokeExact((Object) content, (Object) out);
+        return out;
+    }
+
+    @Benchmark
+    public Object unescape() throws Throwable {
+        Object reader = App.NEW_JSON_READER.invokeExact((Object) quoted);
+        return App.NEXT_STRING.invokeExact(reader);
+    }
+
+    @Benchmark
+    public Object parseContentFromResponse() throws Throwable {
+        return App.PARSE_CONTENT.invokeExact((Object) responseBody);
+    }
+}
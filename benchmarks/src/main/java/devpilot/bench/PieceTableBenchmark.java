@@ -0,0 +1,66 @@
+package devpilot.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The input editor's text model: a keystroke in the middle of a large file, line lookups, and
+ * serializing a request straight from a snapshot (compare with PromptBenchmark.requestBody).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PieceTableBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    int size;
+
+    private String code;
+    private Object table;
+    private int middle;
+    private int middleLine;
+
+    // Every insert appends to the table's buffer, so start each iteration from a fresh one
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        code = Samples.code(size);
+        table = App.PIECE_TABLE_OF.invokeExact((Object) code);
+        middle = code.length() / 2;
+        middleLine = (int) App.PIECE_TABLE_LINE_OF_OFFSET.invokeExact(table, middle);
+    }
+
+    @Benchmark
+    public Object insertInMiddle() throws Throwable {
+        return App.PIECE_TABLE_INSERT.invokeExact(table, middle, (Object) "x");
+    }
+
+    @Benchmark
+    public int lineStart() throws Throwable {
+        return (int) App.PIECE_TABLE_LINE_START.invokeExact(table, middleLine);
+    }
+
+    @Benchmark
+    public int lineOfOffset() throws Throwable {
+        return (int) App.PIECE_TABLE_LINE_OF_OFFSET.invokeExact(table, middle);
+    }
+
+    @Benchmark
+    public Object requestBodyFromSnapshot() throws Throwable {
+        Object prompt = App.BUILD_PROMPT.invokeExact(table, (Object) "Find Bugs");
+        return App.REQUEST_BODY.invokeExact((Object) "openai/gpt-4o-mini", prompt, false);
+    }
+}
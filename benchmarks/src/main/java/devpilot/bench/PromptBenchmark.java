@@ -0,0 +1,62 @@
+package devpilot.bench;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Compacting the input code, building the prompt and request body from it, and wrapping feedback in the output page. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PromptBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    int size;
+
+    private String code;
+    private CharSequence prompt;
+    private String feedback;
+    private Object page;
+
+    @Setup
+    public void setUp() throws Throwable {
+        code = Samples.code(size);
+        prompt = (CharSequence) (Object) App.BUILD_PROMPT.invokeExact((Object) code, (Object) "Find Bugs");
+        feedback = Samples.response(size);
+        // Same colors as the PairProgrammer output pane
+        page = App.NEW_HTML_PAGE.invokeExact((Object) Color.WHITE, (Object) Color.BLACK, (Object) Color.WHITE, (Object) new Color(80, 80, 80));
+    }
+
+    @Benchmark
+    public Object compact() throws Throwable {
+        return App.COMPACT.invokeExact((Object) code, (Object) "Find Bugs");
+    }
+
+    @Benchmark
+    public Object buildPrompt() throws Throwable {
+        return App.BUILD_PROMPT.invokeExact((Object) code, (Object) "Find Bugs");
+    }
+
+    @Benchmark
+    public Object requestBody() throws Throwable {
+        return App.REQUEST_BODY.invokeExact((Object) "openai/gpt-4o-mini", (Object) prompt, false);
+    }
+
+    @Benchmark
+    public Object buildHtmlWrapper() throws Throwable {
+        return App.WRAP_HTML.invokeExact(page, (Object) feedback);
+    }
+}
@@ -0,0 +1,51 @@
+package devpilot.bench;
+
+/** Deterministic inputs shaped like real prompts and model responses. */
+final class Samples {
+
+    // HTML feedback with the characters JSON has to escape: quotes, backslashes, newlines, tabs, non-ASCII
+    private static final String RESPONSE_SNIPPET =
+            "<p>The method <b>factorial</b> returns \"1\" for n &lt; 2 and recurses otherwise.</p>\n"
+            + "<ul><li>Path separator is written as \"C:\\\\temp\\\\out\" on Windows.</li><li>Résumé ✓ handles non-ASCII input.</li></ul>\n"
+            + "<pre><code>int factorial(int n) {\n\treturn n &lt; 2 ? 1 : n * factorial(n - 1);\n}</code></pre>\n";
+
+    private static final String CODE_SNIPPET =
+            "public int factorial(int n) {\n"
+            + "    if (n < 0) {\n"
+            + "        throw new IllegalArgumentException(\"Number must be non-negative.\");\n"
+            + "    }\n"
+            + "    return n < 2 ? 1 : n * factorial(n - 1);\n"
+            + "}\n\n";
+
+    private Samples() {
+    }
+
+    static String response(int chars) {
+        return repeat(RESPONSE_SNIPPET, chars);
+    }
+
+    static String code(int chars) {
+        return repeat(CODE_SNIPPET, chars);
+    }
+
+    /** A chat-completions response body whose message content is `content`. */
+    static String responseBody(String content) throws Throwable {
+        StringBuilder body = new StringBuilder(content.length() + content.length() / 8 + 256)
+                .append("{\"id\":\"gen-1\",\"object\":\"chat.completion\",\"model\":\"openai/gpt-4o-mini\",")
+                .append("\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":");
+        App.WRITE_JSON_STRING.invokeExact((Object) content, (Object) body);
+        return body.append("},\"finish_reason\":\"stop\"}],")
+                .append("\"usage\":{\"prompt_tokens\":812,\"completion_tokens\":").append(content.length() / 4)
+                .append(",\"total_tokens\":").append(812 + content.length() / 4).append("}}")
+                .toString();
+    }
+
+    private static String repeat(String snippet, int chars) {
+        StringBuilder sb = new StringBuilder(chars + snippet.length());
+        while (sb.length() < chars) {
+            sb.append(snippet);
+        }
+        sb.setLength(chars);
+        return sb.toString();
+    }
+}
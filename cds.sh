@@ -0,0 +1,15 @@
+#!/usr/bin/env sh
+# Builds the app and a class-data-sharing (AppCDS) archive for it, so launches skip most class loading and verification.
+# The archive is dumped at the end of a training run: the app starts, paints its first frame, finishes the
+# post-startup warm-up and exits (-Ddevpilot.startup.exit=true). The run opens the window, so it needs a display.
+# An archive only matches the JDK and the jars it was built with; run this again after changing either.
+# Extra arguments are passed to the training JVM, e.g. ./cds.sh -Ddevpilot.history.dir=/tmp/devpilot-training
+set -e
+cd "$(dirname "$0")"
+mvn -B -q package -pl app -am -DskipTests
+cp="app/target/devpilot-1.0-SNAPSHOT.jar:flatlaf-3.2.jar"
+archive="app/target/devpilot.jsa"
+rm -f "$archive"
+java -XX:ArchiveClassesAtExit="$archive" -Ddevpilot.startup.exit=true -Ddevpilot.startup.log=true "$@" -cp "$cp" PairProgrammer
+echo "Archive written to $archive. Launch with:"
+echo "  java -XX:SharedArchiveFile=$archive -Ddevpilot.startup.log=true -cp \"$cp\" PairProgrammer"
@@ -2,7 +2,7 @@
 if (-not (Test-Path "out")) {
     New-Item -ItemType Directory -Path "out" | Out-Null
 }
-javac -cp "flatlaf-3.2.jar" -d out src/PairProgrammer.java
+javac -cp "flatlaf-3.2.jar" -d out src/*.java
 
 # Run
 if ($?) {
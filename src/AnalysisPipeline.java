@@ -0,0 +1,249 @@
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Prompt building and the request/response round trip, kept free of Swing so the desktop UI,
+ * large-file mode and headless runs all go through the same pipeline.
+ */
+public final class AnalysisPipeline {
+
+    static final String[] ANALYSIS_TYPES = {"Explain Code", "Find Bugs", "Refactor Code", "Add Comments", "Generate Unit Tests"};
+    static final String[] MODELS = {"nvidia/nemotron-nano-9b-v2:free", "openai/gpt-4o-mini", "openchat/openchat-7b:free", "google/gemini-2.0-flash-001", "x-ai/grok-code-fast-1"};
+
+    // Bump whenever the prompts below change so stale cached responses are not served
+    static final int PROMPT_VERSION = 2;
+
+    private static final String BASE_INSTRUCTION = "You are an expert programmer and code reviewer. Format your entire response using simple HTML. Use <pre><code> for code blocks, <ul> and <li> for lists, and <b> for bold text. Do not include any text outside of the main HTML body content.";
+
+    private AnalysisPipeline() {
+    }
+
+    /** The prompt as a view over the code, so a large input is not copied until it is serialized. */
+    static CharSequence buildPrompt(CharSequence code, String analysisType) {
+        return new PromptText(BASE_INSTRUCTION + "\n\n" + taskFor(analysisType) + "\n\nCode to analyze:\n", code);
+    }
+
+    /** Prompt for code from the {@link PromptCompactor}, saying where it was cut to fit if it was. */
+    static CharSequence buildPrompt(PromptCompactor.Result code, String analysisType) {
+        if (code.omittedFromLine == 0) {
+            return buildPrompt(code.text, analysisType);
+        }
+        return new PromptText(BASE_INSTRUCTION + "\n\n" + taskFor(analysisType)
+                + "\n\nThe file has " + code.lines + " lines; only lines 1-" + (code.omittedFromLine - 1)
+                + " fit in your context window and are shown. Work only on these and do not guess at the rest."
+                + "\n\nCode to analyze:\n", code.text);
+    }
+
+    /** Prompt for one part of a file that was split for map-reduce analysis. */
+    static String buildChunkPrompt(CodeChunker.Chunk chunk, int parts, String analysisType) {
+        return BASE_INSTRUCTION + "\n\n" + taskFor(analysisType)
+                + "\n\nThe code below is part " + (chunk.index + 1) + " of " + parts + " (lines " + chunk.firstLine + "-" + chunk.lastLine
+                + ") of a larger file. Work only on this part and refer to line numbers of the full file."
+                + "\n\nCode to analyze:\n" + chunk.text;
+    }
+
+    /**
+     * Prompt that merges per-part reports of a map-reduce run into one report; `ranges[i]` names the
+     * lines `reports[i]` covers. Large runs merge in rounds, so a report may itself be a merge.
+     */
+    static String buildReducePrompt(List<String> reports, List<String> ranges, String analysisType) {
+        StringBuilder prompt = new StringBuilder(BASE_INSTRUCTION)
+                .append("\n\nThe task was: ").append(taskFor(analysisType))
+                .append("\n\nA large file was split into consecutive parts and each part was analyzed separately. ")
+                .append("Merge the ").append(reports.size()).append(" partial reports below into one coherent report for the lines they cover. ")
+                .append("Remove duplicates, keep line references, and order findings by importance.");
+        for (int i = 0; i < reports.size(); i++) {
+            prompt.append("\n\n--- Report for lines ").append(ranges.get(i)).append(" ---\n").append(reports.get(i));
+        }
+        return prompt.toString();
+    }
+
+    /**
+     * Prompt for re-analyzing code that changed since an earlier analysis: the earlier response
+     * and a unified diff from the analyzed code to the current code, instead of the whole file.
+     */
+    static String buildIncrementalPrompt(String previousResponse, String diff, String analysisType) {
+        return BASE_INSTRUCTION + "\n\nThe task was: " + taskFor(analysisType)
+                + "\n\nThis task was already done for an earlier version of the code; your previous response is below. "
+                + "The code has since changed as shown in the unified diff after it (lines starting with - were removed, + were added, "
+                + "and each @@ header gives the line numbers in the old and new code). "
+                + "Write the complete updated response for the new code: keep what still applies, with line numbers updated to the new code, "
+                + "drop what the changes made obsolete, and cover the changed lines. Return the whole response, not only what changed."
+                + "\n\n--- Previous response ---\n" + previousResponse
+                + "\n\n--- Changes since then ---\n" + diff;
+    }
+
+    /**
+     * Whether a map-reduce run of this analysis type is merged by the model. Types whose output is
+     * the rewritten code itself are merged by concatenating the parts in order instead, since a
+     * model merge would have to re-emit the whole file.
+     */
+    static boolean reducesWithModel(String analysisType) {
+        return !analysisType.equals("Refactor Code") && !analysisType.equals("Add Comments");
+    }
+
+    private static String taskFor(String analysisType) {
+        switch (analysisType) {
+            case "Find Bugs": return "Analyze the code for bugs. Provide a list of issues.";
+            case "Refactor Code": return "Refactor the code for clarity and efficiency. Provide the refactored code and explain changes.";
+            case "Add Comments": return "Add comments to the code. Provide the complete commented code.";
+            case "Generate Unit Tests": return "Write unit tests for the code. Provide the complete test code.";
+            default: return "Explain the code in simple terms.";
+        }
+    }
+
+    static String callOpenRouterAPI(CharSequence code, String analysisType, String model) throws Exception {
+        return OpenRouterClient.await(callOpenRouterAPIAsync(code, analysisType, model));
+    }
+
+    static CompletableFuture<String> callOpenRouterAPIAsync(CharSequence code, String analysisType, String model) {
+        long buildStart = System.nanoTime();
+        CharSequence prompt = buildPrompt(code, analysisType);
+        Metrics.record(Metrics.Stage.PROMPT_BUILD, model, analysisType, System.nanoTime() - buildStart);
+        return completeAsync(prompt, analysisType, model);
+    }
+
+    /**
+     * Sends one prompt and completes with the response content (or an error page, see parseContentFromResponse).
+     * Cancelling the returned future cancels the request, whether it is still queued or already sent.
+     * The analysis type only labels the request's {@link Metrics} samples.
+     */
+    static CompletableFuture<String> completeAsync(CharSequence prompt, String analysisType, String model) {
+        long startNanos = System.nanoTime();
+        String requestBody = ChatCompletion.requestBody(model, prompt, false);
+        Metrics.record(Metrics.Stage.SERIALIZE, model, analysisType, System.nanoTime() - startNanos);
+
+        // Bytes, not a String: the reader decodes the body as it parses it
+        CompletableFuture<HttpResponse<byte[]>> exchange = RequestScheduler.shared()
+                .submit(model, queueTimer(startNanos, analysisType, model),
+                        () -> OpenRouterClient.shared().sendAsync(requestBody, timed(HttpResponse.BodyHandlers.ofByteArray(), analysisType, model)));
+        CompletableFuture<String> content = exchange.thenApply(response -> {
+            Metrics.record(Metrics.Stage.TOTAL, model, analysisType, System.nanoTime() - startNanos);
+            if (response.statusCode() == 200) {
+                long parseStart = System.nanoTime();
+                String parsed = parseContentFromResponse(response.body(), analysisType, model);
+                Metrics.record(Metrics.Stage.PARSE, model, analysisType, System.nanoTime() - parseStart);
+                return parsed;
+            } else {
+                throw new RuntimeException("API request failed. Status: " + response.statusCode() + " Body: " + new String(response.body(), StandardCharsets.UTF_8));
+            }
+        });
+        // A dependent stage does not pass cancellation upstream on its own
+        content.whenComplete((result, ex) -> {
+            if (content.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return content;
+    }
+
+    /**
+     * Records queue time, from `submittedNanos` to the first attempt being sent, when passed as the
+     * `started` callback of {@link RequestScheduler#submit(String, Runnable, java.util.function.Supplier)}.
+     * Once per request: the time a retry spends waiting is not queue time.
+     */
+    static Runnable queueTimer(long submittedNanos, String analysisType, String model) {
+        return () -> Metrics.record(Metrics.Stage.QUEUE, model, analysisType, System.nanoTime() - submittedNanos);
+    }
+
+    /**
+     * Wraps a body handler to record time to first byte (the response headers arriving) for one
+     * attempt; created inside the scheduler's send supplier, so each retry restarts the clock.
+     */
+    static <T> HttpResponse.BodyHandler<T> timed(HttpResponse.BodyHandler<T> handler, String analysisType, String model) {
+        long sentNanos = System.nanoTime();
+        return info -> {
+            Metrics.record(Metrics.Stage.FIRST_BYTE, model, analysisType, System.nanoTime() - sentNanos);
+            return handler.apply(info);
+        };
+    }
+
+    static String parseContentFromResponse(String responseBody) {
+        ChatCompletion completion;
+        try {
+            completion = ChatCompletion.parse(responseBody);
+        } catch (IllegalStateException ex) {
+            return unparsablePage(ex, responseBody);
+        }
+        return contentOrErrorPage(completion, responseBody);
+    }
+
+    // Same as above for the body's bytes, also recording the response's token usage under the given
+    // labels; the body only becomes a String for an error page
+    private static String parseContentFromResponse(byte[] responseBody, String analysisType, String model) {
+        ChatCompletion completion;
+        try {
+            completion = ChatCompletion.parse(ByteBuffer.wrap(responseBody));
+        } catch (IllegalStateException ex) {
+            return unparsablePage(ex, new String(responseBody, StandardCharsets.UTF_8));
+        }
+        Metrics.recordUsage(completion, model, analysisType);
+        if (completion.isError() || completion.content == null) {
+            return contentOrErrorPage(completion, new String(responseBody, StandardCharsets.UTF_8));
+        }
+        return completion.content;
+    }
+
+    private static String unparsablePage(IllegalStateException ex, String responseBody) {
+        return "<b>Error:</b> Could not parse AI response (" + escapeHtml(ex.getMessage()) + ").<br><pre>" + escapeHtml(responseBody) + "</pre>";
+    }
+
+    private static String contentOrErrorPage(ChatCompletion completion, String responseBody) {
+        if (completion.isError()) {
+            return "<b>Error:</b> " + escapeHtml(completion.errorMessage) + "<br><pre>" + escapeHtml(responseBody) + "</pre>";
+        }
+        if (completion.content == null) {
+            return "<b>Error:</b> Could not find 'content' key in AI response.<br><pre>" + escapeHtml(responseBody) + "</pre>";
+        }
+        return completion.content;
+    }
+
+    /** True for the error pages parseContentFromResponse returns in place of content. */
+    static boolean isErrorPage(String response) {
+        return response.startsWith("<b>Error:</b>");
+    }
+
+    static String escapeHtml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    // Instructions followed by the code, read in place by the JSON writer
+    private static final class PromptText implements CharSequence {
+        private final String head;
+        private final CharSequence code;
+
+        PromptText(String head, CharSequence code) {
+            this.head = head;
+            this.code = code;
+        }
+
+        @Override
+        public int length() {
+            return head.length() + code.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return index < head.length() ? head.charAt(index) : code.charAt(index - head.length());
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (end <= head.length()) {
+                return head.substring(start, end);
+            }
+            if (start >= head.length()) {
+                return code.subSequence(start - head.length(), end - head.length());
+            }
+            return new PromptText(head.substring(start), code.subSequence(0, end - head.length()));
+        }
+
+        @Override
+        public String toString() {
+            return head + code;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless batch mode: runs analyses over a whole source tree without the Swing frame.
+ *
+ * Usage:
+ *   java -cp out BatchRunner --root DIR [--glob PATTERN] [--types "Find Bugs,Generate Unit Tests"]
+ *        [--model MODEL] [--concurrency N] [--out DIR] [--resume]
+ *
+ * Every (file, analysis type) pair is compacted (see PromptCompactor) and goes through the same
+ * AnalysisPipeline as the desktop app, with at most N requests in flight; a file large enough to be
+ * split holds one permit per chunk request it runs at once. Each result is written to
+ * OUT/relative/path.type-slug.html and one JSON line per pair is appended to OUT/summary.jsonl as it
+ * finishes. With --resume, pairs already recorded as "ok" for an unchanged file (same content hash),
+ * with the same model and the same compaction mode, are skipped. Per-stage latency and token histograms of the run (see Metrics) are written to
+ * OUT/metrics.json at the end.
+ * The API endpoint comes from OPENROUTER_API_URL, so a run can be pointed at a local stub server.
+ *
+ * Exit status: 0 if every pair succeeded, 1 if any failed, 2 for bad arguments.
+ */
+public final class BatchRunner {
+
+    private static final String SUMMARY_FILE = "summary.jsonl";
+    private static final String METRICS_FILE = "metrics.json";
+
+    private Path root;
+    private Path out = Paths.get("devpilot-out");
+    private String glob = "**/*.{java,py,js,ts,go,rs,c,cpp,cs,kt}";
+    private List<String> analysisTypes = List.of("Find Bugs");
+    private String model = AnalysisPipeline.MODELS[0];
+    private int concurrency = 8;
+    private boolean resume;
+
+    private BufferedWriter summary;
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        BatchRunner runner = new BatchRunner();
+        try {
+            runner.parseArgs(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: BatchRunner --root DIR [--glob PATTERN] [--types \"Find Bugs,...\"] [--model MODEL] [--concurrency N] [--out DIR] [--resume]");
+            System.exit(2);
+        }
+        if (OpenRouterClient.API_KEY == null || OpenRouterClient.API_KEY.isBlank()) {
+            System.err.println("Please set the OPENROUTER_API_KEY environment variable before running.");
+            System.exit(2);
+        }
+        System.exit(runner.run() ? 0 : 1);
+    }
+
+    void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--resume")) {
+                resume = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--root": root = Paths.get(value); break;
+                case "--out": out = Paths.get(value); break;
+                case "--glob": glob = value; break;
+                case "--model": model = value; break;
+                case "--types": analysisTypes = parseTypes(value); break;
+                case "--concurrency":
+                    try {
+                        concurrency = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("--concurrency must be a number: " + value);
+                    }
+                    if (concurrency < 1) {
+                        throw new IllegalArgumentException("--concurrency must be at least 1");
+                    }
+                    break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (root == null || !Files.isDirectory(root)) {
+            throw new IllegalArgumentException("--root must name a directory");
+        }
+    }
+
+    private static List<String> parseTypes(String value) {
+        List<String> types = new ArrayList<>();
+        for (String type : value.split(",")) {
+            String trimmed = type.strip();
+            if (!List.of(AnalysisPipeline.ANALYSIS_TYPES).contains(trimmed)) {
+                throw new IllegalArgumentException("Unknown analysis type: " + trimmed);
+            }
+            types.add(trimmed);
+        }
+        return types;
+    }
+
+    /** Runs every pending (file, type) pair; returns true if none failed. */
+    boolean run() throws IOException, InterruptedException {
+        Files.createDirectories(out);
+        List<Path> files = findSources();
+        Set<String> done = resume ? readCompleted() : Set.of();
+        summary = Files.newBufferedWriter(out.resolve(SUMMARY_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        Semaphore permits = new Semaphore(concurrency);
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        int skipped = 0;
+        int filesRun = 0;
+        long startNanos = System.nanoTime();
+        for (Path file : files) {
+            String rel = root.relativize(file).toString().replace('\\', '/');
+            String code;
+            try {
+                code = Files.readString(file, StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                // Unreadable or not UTF-8: record the failure and keep going with the other files
+                for (String type : analysisTypes) {
+                    record(rel, type, PromptCompactor.mode(PromptCompactor.ENABLED, type), "", null, ex, 0);
+                }
+                continue;
+            }
+            String hash = ResponseCache.contentHash(code);
+            int pending = tasks.size();
+            for (String type : analysisTypes) {
+                String compaction = PromptCompactor.mode(PromptCompactor.ENABLED, type);
+                if (done.contains(resumeKey(rel, type, model, compaction, hash))) {
+                    skipped++;
+                    continue;
+                }
+                String input = PromptCompactor.ENABLED ? PromptCompactor.compact(code, type).text : code;
+                boolean split = LargeFileAnalyzer.needsSplitting(input);
+                // A split file fans out into chunk requests, so it takes a permit for each one it runs at
+                // once; never more than the whole pool, or it could wait forever
+                int width = split ? Math.min(Math.min(LargeFileAnalyzer.PARALLELISM, concurrency),
+                        Math.max(1, PromptCompactor.estimateTokens(input) / LargeFileAnalyzer.CHUNK_TOKENS + 1)) : 1;
+                // Block here rather than queueing every file's contents in memory at once
+                permits.acquire(width);
+                long taskStart = System.nanoTime();
+                CompletableFuture<String> request = split
+                        ? LargeFileAnalyzer.analyze(input, type, model, width, (chunk, chunks, result) -> { })
+                        : AnalysisPipeline.callOpenRouterAPIAsync(input, type, model);
+                tasks.add(request.handle((response, ex) -> {
+                    try {
+                        record(rel, type, compaction, hash, response, ex, (System.nanoTime() - taskStart) / 1_000_000);
+                    } finally {
+                        permits.release(width);
+                    }
+                    return null;
+                }));
+            }
+            if (tasks.size() > pending) {
+                filesRun++;
+            }
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+        summary.close();
+        Files.writeString(out.resolve(METRICS_FILE), Metrics.toJson(Metrics.snapshot()), StandardCharsets.UTF_8);
+
+        double minutes = (System.nanoTime() - startNanos) / 60e9;
+        System.err.printf(Locale.ROOT, "%d ok, %d failed, %d skipped in %.1f s (%.1f files/min)%n",
+                succeeded.get(), failed.get(), skipped, minutes * 60, minutes > 0 ? filesRun / minutes : 0.0);
+        return failed.get() == 0;
+    }
+
+    private List<Path> findSources() throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        // "**/" needs at least one directory, so also match top-level files against the rest of the pattern
+        PathMatcher topLevel = glob.startsWith("**/") ? FileSystems.getDefault().getPathMatcher("glob:" + glob.substring(3)) : matcher;
+        Path outDir = out.toAbsolutePath().normalize();
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                boolean hidden = !dir.equals(root) && dir.getFileName().toString().startsWith(".");
+                return hidden || dir.toAbsolutePath().normalize().equals(outDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Path rel = root.relativize(file);
+                if (attrs.isRegularFile() && (matcher.matches(rel) || (rel.getNameCount() == 1 && topLevel.matches(rel)))) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        files.sort(null);
+        return files;
+    }
+
+    // Another model or compaction mode answers a different prompt, so neither may reuse the other's result
+    private static String resumeKey(String path, String type, String model, String compaction, String hash) {
+        return path + "\n" + type + "\n" + model + "\n" + compaction + "\n" + hash;
+    }
+
+    // Resume keys of pairs a previous run finished successfully; lines written without a model or
+    // compaction mode match nothing, so those pairs run again
+    private Set<String> readCompleted() throws IOException {
+        Set<String> completed = new HashSet<>();
+        Path file = out.resolve(SUMMARY_FILE);
+        if (!Files.exists(file)) {
+            return completed;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String path = null;
+            String type = null;
+            String lineModel = null;
+            String compaction = null;
+            String hash = null;
+            String status = null;
+            try {
+                JsonReader reader = new JsonReader(line);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "file": path = reader.nextScalarAsString(); break;
+                        case "type": type = reader.nextScalarAsString(); break;
+                        case "model": lineModel = reader.nextScalarAsString(); break;
+                        case "compaction": compaction = reader.nextScalarAsString(); break;
+                        case "sha256": hash = reader.nextScalarAsString(); break;
+                        case "status": status = reader.nextScalarAsString(); break;
+                        default: reader.skipValue(); break;
+                    }
+                }
+            } catch (IllegalStateException ex) {
+                // A line cut short by an interrupted run; that pair simply runs again
+                continue;
+            }
+            if ("ok".equals(status)) {
+                completed.add(resumeKey(path, type, lineModel, compaction, hash));
+            }
+        }
+        return completed;
+    }
+
+    private void record(String rel, String type, String compaction, String hash, String response, Throwable ex, long millis) {
+        String error = null;
+        String outputFile = null;
+        if (ex != null) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            error = String.valueOf(cause.getMessage());
+        } else if (AnalysisPipeline.isErrorPage(response)) {
+            error = response;
+        } else {
+            outputFile = rel + "." + type.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-") + ".html";
+            try {
+                Path target = out.resolve(outputFile);
+                Files.createDirectories(target.getParent());
+                Files.writeString(target, response, StandardCharsets.UTF_8);
+            } catch (IOException ioEx) {
+                error = "Could not write output: " + ioEx.getMessage();
+                outputFile = null;
+            }
+        }
+        (error == null ? succeeded : failed).incrementAndGet();
+
+        JsonWriter json = new JsonWriter(new StringBuilder());
+        json.beginObject()
+                .name("file").value(rel)
+                .name("type").value(type)
+                .name("model").value(model)
+                .name("compaction").value(compaction)
+                .name("sha256").value(hash)
+                .name("status").value(error == null ? "ok" : "error")
+                .name("millis").value(millis);
+        if (outputFile != null) {
+            json.name("output").value(outputFile);
+        }
+        if (error != null) {
+            json.name("error").value(error);
+        }
+        String line = json.endObject().finish();
+        synchronized (this) {
+            try {
+                summary.write(line);
+                summary.newLine();
+                // Flushed per line so --resume sees everything that finished before an interruption
+                summary.flush();
+            } catch (IOException ioEx) {
+                System.err.println("Could not write summary line: " + ioEx.getMessage());
+            }
+        }
+        System.err.println((error == null ? "ok     " : "error  ") + rel + " [" + type + "] " + millis + " ms");
+    }
+}
@@ -0,0 +1,150 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Request and response shapes of the OpenRouter chat-completions API.
+ * Bodies are written with {@link JsonWriter} and parsed with {@link JsonReader}: the first choice's
+ * content (message.content, or delta.content for stream chunks), finish_reason, usage counts and
+ * any error object. Fields the API did not send stay null or -1.
+ */
+public final class ChatCompletion {
+
+    String content;
+    String finishReason;
+    long promptTokens = -1;
+    long completionTokens = -1;
+    long totalTokens = -1;
+    String errorMessage;
+    String errorCode;
+
+    /** Builds a single-user-message request body in this thread's reusable buffer. */
+    public static String requestBody(String model, CharSequence prompt, boolean stream) {
+        JsonWriter json = JsonWriter.reusable();
+        json.beginObject().name("model").value(model);
+        if (stream) {
+            json.name("stream").value(true);
+        }
+        json.name("messages").beginArray()
+                .beginObject().name("role").value("user").name("content").value(prompt).endObject()
+                .endArray();
+        return json.endObject().finish();
+    }
+
+    /** Parses a full response body or one server-sent-events chunk. */
+    public static ChatCompletion parse(CharSequence body) {
+        return parse(new JsonReader(body));
+    }
+
+    /** Parses a response body as it came off the wire, decoding the UTF-8 as it goes. */
+    public static ChatCompletion parse(ByteBuffer utf8) {
+        return parse(new JsonReader(utf8));
+    }
+
+    private static ChatCompletion parse(JsonReader reader) {
+        ChatCompletion result = new ChatCompletion();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "choices": result.readChoices(reader); break;
+                case "usage": result.readUsage(reader); break;
+                case "error": result.readError(reader); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+        return result;
+    }
+
+    public boolean isError() {
+        return errorMessage != null;
+    }
+
+    private void readChoices(JsonReader reader) {
+        if (reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "message":
+                    case "delta":
+                        readMessage(reader);
+                        break;
+                    case "finish_reason": finishReason = reader.nextScalarAsString(); break;
+                    case "error": readError(reader); break;
+                    default: reader.skipValue(); break;
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    private void readMessage(JsonReader reader) {
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("content") && reader.peek() == JsonReader.Token.STRING) {
+                content = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readUsage(JsonReader reader) {
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() != JsonReader.Token.NUMBER) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "prompt_tokens": promptTokens = reader.nextLong(); break;
+                case "completion_tokens": completionTokens = reader.nextLong(); break;
+                case "total_tokens": totalTokens = reader.nextLong(); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readError(JsonReader reader) {
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            errorMessage = String.valueOf(reader.nextScalarAsString());
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("message") && reader.peek() == JsonReader.Token.STRING) {
+                errorMessage = reader.nextString();
+            } else if (name.equals("code") && reader.peek() != JsonReader.Token.BEGIN_OBJECT && reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+                errorCode = reader.nextScalarAsString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (errorMessage == null) {
+            errorMessage = "Unknown error" + (errorCode != null ? " (code " + errorCode + ")" : "");
+        }
+    }
+}
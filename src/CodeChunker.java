@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Splits source code into chunks under a token budget, cutting at structural boundaries.
+ *
+ * Strong boundaries are the end of a top-level brace block and the line before an unindented
+ * declaration (class, def, function, ...); weak boundaries are blank lines. A chunk is cut at the
+ * last strong boundary if it lies in the second half of the chunk, otherwise at the last boundary of
+ * any kind, and only as a last resort in the middle of a block. A single line longer than the budget
+ * becomes a chunk of its own.
+ */
+public final class CodeChunker {
+
+    private static final Pattern TOP_LEVEL_DECLARATION = Pattern.compile(
+            "^(?:@|(?:public|private|protected|internal|static|final|abstract|sealed|class|interface|enum|record|struct|impl|trait|"
+                    + "def|async|function|export|fn|func|module|namespace|package|template)\\b).*");
+
+    /** One chunk of the input; line numbers are 1-based and inclusive. */
+    public static final class Chunk {
+        final int index;
+        final int firstLine;
+        final int lastLine;
+        final String text;
+
+        Chunk(int index, int firstLine, int lastLine, String text) {
+            this.index = index;
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.text = text;
+        }
+    }
+
+    private CodeChunker() {
+    }
+
+    public static List<Chunk> split(String code, int maxTokens) {
+        String[] lines = code.split("\n", -1);
+        int n = lines.length;
+        int[] lineTokens = new int[n];
+        int[] boundaryAfter = new int[n]; // 0 none, 1 weak, 2 strong
+
+        int depth = 0;
+        int lineStart = 0;
+        for (int i = 0; i < n; i++) {
+            String line = lines[i];
+            // Counted with the newline before it, so a chunk's lines add up to what the chunk is estimated at
+            // (give or take that first newline) when its prompt is fitted to a budget
+            int lineEnd = lineStart + line.length();
+            lineTokens[i] = PromptCompactor.estimateTokens(code, Math.max(0, lineStart - 1), lineEnd);
+            lineStart = lineEnd + 1;
+            int before = depth;
+            for (int c = 0; c < line.length(); c++) {
+                char ch = line.charAt(c);
+                if (ch == '{') {
+                    depth++;
+                } else if (ch == '}') {
+                    depth = Math.max(0, depth - 1);
+                }
+            }
+            if (line.isBlank()) {
+                boundaryAfter[i] = 1;
+            }
+            if (depth == 0 && before > 0) {
+                boundaryAfter[i] = 2;
+            }
+            if (i > 0 && depth == 0 && !line.isEmpty() && !Character.isWhitespace(line.charAt(0))
+                    && TOP_LEVEL_DECLARATION.matcher(line).matches()) {
+                boundaryAfter[i - 1] = 2;
+            }
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        int start = 0;
+        int tokens = 0;
+        int lastStrong = -1;
+        int lastAny = -1;
+        for (int i = 0; i < n; i++) {
+            if (tokens + lineTokens[i] > maxTokens && i > start) {
+                int cut;
+                if (lastStrong >= start && lastStrong - start + 1 >= (i - start) / 2) {
+                    cut = lastStrong;
+                } else if (lastAny >= start) {
+                    cut = lastAny;
+                } else {
+                    cut = i - 1;
+                }
+                chunks.add(chunk(chunks.size(), lines, start, cut));
+                start = cut + 1;
+                tokens = 0;
+                for (int j = start; j < i; j++) {
+                    tokens += lineTokens[j];
+                }
+                if (lastStrong <= cut) {
+                    lastStrong = -1;
+                }
+                if (lastAny <= cut) {
+                    lastAny = -1;
+                }
+            }
+            tokens += lineTokens[i];
+            if (boundaryAfter[i] == 2) {
+                lastStrong = i;
+            }
+            if (boundaryAfter[i] != 0) {
+                lastAny = i;
+            }
+        }
+        if (start < n) {
+            chunks.add(chunk(chunks.size(), lines, start, n - 1));
+        }
+        return chunks;
+    }
+
+    private static Chunk chunk(int index, String[] lines, int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            text.append(lines[i]);
+            if (i < to) {
+                text.append('\n');
+            }
+        }
+        return new Chunk(index, from + 1, to + 1, text.toString());
+    }
+}
@@ -0,0 +1,659 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Editor kit for the code input: a {@link PieceTableDocument} shown by a word-wrapping view that
+ * wraps only the lines it paints.
+ *
+ * WrappedPlainView keeps a child view per line and measures every line whenever the width changes.
+ * This view keeps one row count per line instead: lines that have not been painted at the current
+ * width get an estimate from their length, and a line is wrapped for real when it is painted or
+ * edited. A treap over the lines (see LineRows) maps between lines and y positions, and splices
+ * lines in or out for an edit, in O(log n).
+ */
+public final class CodeEditorKit extends DefaultEditorKit {
+
+    private final ViewFactory factory = WrapView::new;
+
+    @Override
+    public String getContentType() {
+        return "text/plain";
+    }
+
+    @Override
+    public ViewFactory getViewFactory() {
+        return factory;
+    }
+
+    @Override
+    public Document createDefaultDocument() {
+        return new PieceTableDocument();
+    }
+
+    /**
+     * Reads everything, then inserts it at once. DefaultEditorKit inserts 4K chars at a time, and each
+     * of those inserts adds lines, which makes the view rebuild its row index. Line endings are
+     * converted to '\n' the same way.
+     */
+    @Override
+    public void read(Reader in, Document doc, int pos) throws IOException, BadLocationException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        boolean afterCR = false;
+        boolean sawCR = false;
+        boolean sawCRLF = false;
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+                if (c == '\n' && afterCR) {
+                    sawCRLF = true;
+                } else {
+                    sawCR |= c == '\r';
+                    text.append(c == '\r' ? '\n' : c);
+                }
+                afterCR = c == '\r';
+            }
+        }
+        doc.insertString(pos, text.toString(), null);
+        doc.putProperty(EndOfLineStringProperty, sawCRLF ? "\r\n" : sawCR ? "\r" : "\n");
+    }
+
+    private static final class WrapView extends View implements TabExpander {
+        // Columns assumed for the preferred width before the view has been given one
+        private static final int DEFAULT_COLUMNS = 80;
+
+        private Font font;
+        private FontMetrics metrics;
+        private int lineHeight;
+        private float width = Integer.MAX_VALUE;
+        private int tabBase;
+
+        // Row count and length of every line; built on first use
+        private LineRows lines;
+
+        // Row starts of the most recently wrapped line; caret moves ask for the same line repeatedly
+        private int cachedLine = -1;
+        private int[] cachedRowStarts;
+
+        private final Segment segment = new Segment();
+
+        WrapView(Element elem) {
+            super(elem);
+        }
+
+        @Override
+        public float getPreferredSpan(int axis) {
+            sync();
+            if (axis == X_AXIS) {
+                return wrapping() ? width : DEFAULT_COLUMNS * metrics.charWidth('0');
+            }
+            return (float) totalRows() * lineHeight;
+        }
+
+        // Any width will do, so JEditorPane tracks the viewport width
+        @Override
+        public int getResizeWeight(int axis) {
+            return axis == X_AXIS ? 1 : 0;
+        }
+
+        @Override
+        public void setSize(float width, float height) {
+            if (width != this.width) {
+                this.width = width;
+                if (metrics != null) {
+                    int before = totalRows();
+                    estimateAll();
+                    if (totalRows() != before) {
+                        preferenceChanged(null, false, true);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void paint(Graphics g, Shape a) {
+            sync();
+            Rectangle alloc = a.getBounds();
+            tabBase = alloc.x;
+            Rectangle clip = g.getClipBounds();
+            int top = clip != null ? clip.y : alloc.y;
+            int bottom = clip != null ? clip.y + clip.height : alloc.y + alloc.height;
+
+            JTextComponent host = (JTextComponent) getContainer();
+            Highlighter highlighter = host.getHighlighter();
+            LayeredHighlighter layered = highlighter instanceof LayeredHighlighter ? (LayeredHighlighter) highlighter : null;
+            Color unselected = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+            Color selected = host.getCaret().isSelectionVisible() && highlighter != null ? host.getSelectedTextColor() : unselected;
+            int sel0 = host.getSelectionStart();
+            int sel1 = host.getSelectionEnd();
+            g.setFont(font);
+
+            Element map = getElement();
+            int line = lineAtRow(Math.max(0, (top - alloc.y) / lineHeight));
+            int y = alloc.y + prefixRows(line) * lineHeight;
+            boolean resized = false;
+            for (int lineCount = lines.count(); line < lineCount && y < bottom; line++) {
+                Element element = map.getElement(line);
+                int start = element.getStartOffset();
+                int end = element.getEndOffset();
+                int[] starts = rowStarts(line, start, end);
+                // This line is now wrapped for real; later lines move if its estimate was off
+                resized |= setRows(line, starts.length);
+                for (int i = 0; i < starts.length; i++) {
+                    int p0 = starts[i];
+                    int p1 = i + 1 < starts.length ? starts[i + 1] : end;
+                    if (layered != null) {
+                        layered.paintLayeredHighlights(g, p0, p1 == end ? p1 - 1 : p1, a, host, this);
+                    }
+                    int baseline = y + metrics.getAscent();
+                    float x = alloc.x;
+                    x = drawRun(g, p0, Math.min(p1, Math.max(p0, sel0)), x, baseline, unselected);
+                    x = drawRun(g, Math.max(p0, sel0), Math.min(p1, sel1), x, baseline, selected);
+                    drawRun(g, Math.max(p0, Math.min(p1, sel1)), p1, x, baseline, unselected);
+                    y += lineHeight;
+                }
+            }
+            if (resized) {
+                preferenceChanged(null, false, true);
+            }
+        }
+
+        private float drawRun(Graphics g, int p0, int p1, float x, int baseline, Color color) {
+            if (p0 >= p1) {
+                return x;
+            }
+            load(p0, p1 - p0);
+            g.setColor(color);
+            return Utilities.drawTabbedText(segment, x, baseline, (Graphics2D) g, this, p0);
+        }
+
+        @Override
+        public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+            if (pos < getStartOffset() || pos > getEndOffset()) {
+                throw new BadLocationException("Invalid position", pos);
+            }
+            sync();
+            Rectangle alloc = a.getBounds();
+            tabBase = alloc.x;
+            Element map = getElement();
+            int line = map.getElementIndex(pos);
+            Element element = map.getElement(line);
+            int start = element.getStartOffset();
+            int[] starts = rowStarts(line, start, element.getEndOffset());
+            // A position where a row wraps is the end of the upper row when biased backward
+            int test = b == Position.Bias.Backward ? Math.max(start, pos - 1) : pos;
+            int row = rowOf(starts, test);
+            float x = alloc.x;
+            if (pos > starts[row]) {
+                load(starts[row], pos - starts[row]);
+                x += Utilities.getTabbedTextWidth(segment, metrics, x, this, starts[row]);
+            }
+            return new Rectangle2D.Float(x, alloc.y + (float) (prefixRows(line) + row) * lineHeight, 1, lineHeight);
+        }
+
+        @Override
+        public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+            bias[0] = Position.Bias.Forward;
+            sync();
+            Rectangle alloc = a.getBounds();
+            tabBase = alloc.x;
+            if (fy < alloc.y) {
+                return getStartOffset();
+            }
+            int row = (int) ((fy - alloc.y) / lineHeight);
+            if (row >= totalRows()) {
+                return getEndOffset() - 1;
+            }
+            int line = lineAtRow(row);
+            Element element = getElement().getElement(line);
+            int end = element.getEndOffset();
+            int[] starts = rowStarts(line, element.getStartOffset(), end);
+            int r = Math.min(row - prefixRows(line), starts.length - 1);
+            int p0 = starts[r];
+            int p1 = r + 1 < starts.length ? starts[r + 1] : end;
+            if (fx < alloc.x) {
+                return p0;
+            }
+            load(p0, p1 - p0);
+            int n = Utilities.getTabbedTextOffset(segment, metrics, alloc.x, fx, this, p0, false);
+            return Math.min(p0 + n, p1 - 1);
+        }
+
+        @Override
+        public float nextTabStop(float x, int tabOffset) {
+            int tabWidth = tabSize() * metrics.charWidth('m');
+            if (tabWidth == 0) {
+                return x;
+            }
+            int tabs = (int) ((x - tabBase) / tabWidth);
+            return tabBase + (tabs + 1) * (float) tabWidth;
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            update(e, a);
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            update(e, a);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            update(e, a);
+        }
+
+        private void update(DocumentEvent e, Shape a) {
+            cachedLine = -1;
+            if (lines == null) {
+                return;
+            }
+            Element map = getElement();
+            int before = totalRows();
+            DocumentEvent.ElementChange change = e.getChange(map);
+            int line;
+            if (change != null) {
+                line = change.getIndex();
+                Element[] added = change.getChildrenAdded();
+                int[] lengths = new int[added.length];
+                for (int i = 0; i < added.length; i++) {
+                    lengths[i] = length(added[i]);
+                }
+                // New lines start out estimated
+                lines.splice(line, change.getChildrenRemoved().length, lengths, this::estimate);
+            } else {
+                line = map.getElementIndex(e.getOffset());
+                // The edited line is on screen as a rule, so wrap it now rather than after a repaint
+                Element element = map.getElement(line);
+                lines.setLine(line, rowStarts(line, element.getStartOffset(), element.getEndOffset()).length, length(element));
+            }
+            if (totalRows() != before) {
+                preferenceChanged(null, false, true);
+            }
+            Component host = getContainer();
+            if (host != null && a != null) {
+                Rectangle alloc = a.getBounds();
+                int y = alloc.y + prefixRows(line) * lineHeight;
+                host.repaint(alloc.x, y, alloc.width, Math.max(0, alloc.y + alloc.height - y));
+            }
+        }
+
+        // Picks up font changes and builds the row counts the first time the view is used
+        private void sync() {
+            Container host = getContainer();
+            Font current = host.getFont();
+            if (metrics == null || !current.equals(font)) {
+                font = current;
+                metrics = host.getFontMetrics(current);
+                lineHeight = Math.max(1, metrics.getHeight());
+                estimateAll();
+            }
+        }
+
+        // Puts every line back to an estimate; line lengths are kept, so only the first call reads the document
+        private void estimateAll() {
+            cachedLine = -1;
+            if (lines != null) {
+                lines.estimateAll(this::estimate);
+                return;
+            }
+            Element map = getElement();
+            int[] lengths = new int[map.getElementCount()];
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] = length(map.getElement(i));
+            }
+            lines = new LineRows();
+            lines.splice(0, 0, lengths, this::estimate);
+        }
+
+        // Chars in a line, not counting its newline
+        private static int length(Element line) {
+            return line.getEndOffset() - line.getStartOffset() - 1;
+        }
+
+        // Rows a line of this many chars needs if every char is as wide as a digit; wrapping at words may add a few
+        private int estimate(int chars) {
+            if (!wrapping()) {
+                return 1;
+            }
+            int columns = Math.max(1, (int) (width / Math.max(1, metrics.charWidth('0'))));
+            return Math.max(1, (chars + columns - 1) / columns);
+        }
+
+        private boolean wrapping() {
+            return width > 0 && width < Integer.MAX_VALUE / 2;
+        }
+
+        // Offsets where each row of a line starts, wrapping at word boundaries like WrappedPlainView
+        private int[] rowStarts(int line, int start, int end) {
+            if (line == cachedLine) {
+                return cachedRowStarts;
+            }
+            int[] starts = new int[4];
+            int count = 0;
+            int p0 = start;
+            do {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = p0;
+                p0 = wrapping() ? breakAfter(p0, end) : end;
+            } while (p0 < end);
+            cachedLine = line;
+            cachedRowStarts = Arrays.copyOf(starts, count);
+            return cachedRowStarts;
+        }
+
+        private int breakAfter(int p0, int end) {
+            // No row holds more chars than it has pixels, so a longer line is only read this far
+            int window = Math.min(end - p0, (int) width + 1);
+            load(p0, window);
+            int p = p0 + Utilities.getBreakLocation(segment, metrics, tabBase, tabBase + width, this, p0);
+            return p > p0 ? p : p0 + 1;
+        }
+
+        private void load(int offset, int length) {
+            try {
+                getDocument().getText(offset, length, segment);
+            } catch (BadLocationException ex) {
+                throw new IllegalStateException("Line map out of step with the document", ex);
+            }
+        }
+
+        private int tabSize() {
+            Object size = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+            return size instanceof Integer ? (Integer) size : 8;
+        }
+
+        private static int rowOf(int[] starts, int offset) {
+            int index = Arrays.binarySearch(starts, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        // Stores an exact row count; returns whether it changed the line's height
+        private boolean setRows(int line, int count) {
+            return lines.setRows(line, count);
+        }
+
+        private int totalRows() {
+            return lines.total();
+        }
+
+        // Rows above a line
+        private int prefixRows(int line) {
+            return lines.rowsBefore(line);
+        }
+
+        // Line that holds a row, or the last line for rows past the end
+        private int lineAtRow(int row) {
+            return lines.lineAtRow(row);
+        }
+    }
+
+    /**
+     * DSA: Implicit treap over a document's lines: a node's line number is its in-order position, and
+     * each node holds its line's row count (negative while only an estimate) and length, plus its
+     * subtree's line count and row total. Lookups by line or by row, setting one line, and splicing
+     * lines in or out are O(log n) expected. Nodes live in parallel int arrays; index 0 is the empty
+     * tree, with size and total 0.
+     */
+    private static final class LineRows {
+        private static final int NIL = 0;
+
+        private int[] left = new int[64];
+        private int[] right = new int[64];
+        private int[] priority = new int[64];
+        private int[] size = new int[64];
+        private int[] total = new int[64];
+        private int[] rows = new int[64];
+        private int[] chars = new int[64];
+        private int root = NIL;
+        private int allocated = 1;
+        // Released nodes, chained through left
+        private int free = NIL;
+        private int seed = 0x2545F491;
+        // Scratch for setLine's path from the root, and split's two results
+        private int[] path = new int[64];
+        private int splitLeft;
+        private int splitRight;
+
+        int count() {
+            return size[root];
+        }
+
+        int total() {
+            return total[root];
+        }
+
+        int rowsBefore(int line) {
+            int sum = 0;
+            for (int t = root; t != NIL; ) {
+                if (line <= size[left[t]]) {
+                    t = left[t];
+                } else {
+                    sum += total[left[t]] + Math.abs(rows[t]);
+                    line -= size[left[t]] + 1;
+                    t = right[t];
+                }
+            }
+            return sum;
+        }
+
+        int lineAtRow(int row) {
+            if (row >= total[root]) {
+                return count() - 1;
+            }
+            int line = 0;
+            for (int t = root; ; ) {
+                if (row < total[left[t]]) {
+                    t = left[t];
+                    continue;
+                }
+                row -= total[left[t]];
+                int own = Math.abs(rows[t]);
+                if (row < own) {
+                    return line + size[left[t]];
+                }
+                row -= own;
+                line += size[left[t]] + 1;
+                t = right[t];
+            }
+        }
+
+        // Exact row count for a line; returns whether its height changed
+        boolean setRows(int line, int count) {
+            return setLine(line, count, -1);
+        }
+
+        // Exact row count and, unless negative, new length for a line; returns whether its height changed
+        boolean setLine(int line, int count, int length) {
+            int depth = 0;
+            int t = root;
+            while (true) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = t;
+                int before = size[left[t]];
+                if (line == before) {
+                    break;
+                }
+                if (line < before) {
+                    t = left[t];
+                } else {
+                    line -= before + 1;
+                    t = right[t];
+                }
+            }
+            boolean changed = Math.abs(rows[t]) != count;
+            rows[t] = count;
+            if (length >= 0) {
+                chars[t] = length;
+            }
+            if (changed) {
+                while (depth > 0) {
+                    pull(path[--depth]);
+                }
+            }
+            return changed;
+        }
+
+        // Replaces lines [index, index + removed) with lines of the given lengths, estimated
+        void splice(int index, int removed, int[] lengths, IntUnaryOperator estimate) {
+            split(root, index);
+            int before = splitLeft;
+            split(splitRight, removed);
+            int after = splitRight;
+            release(splitLeft);
+            root = merge(merge(before, build(lengths, estimate)), after);
+        }
+
+        // Every line back to an estimate from its length
+        void estimateAll(IntUnaryOperator estimate) {
+            estimateAll(root, estimate);
+        }
+
+        private void estimateAll(int t, IntUnaryOperator estimate) {
+            if (t == NIL) {
+                return;
+            }
+            estimateAll(left[t], estimate);
+            estimateAll(right[t], estimate);
+            rows[t] = -estimate.applyAsInt(chars[t]);
+            pull(t);
+        }
+
+        private void pull(int t) {
+            size[t] = size[left[t]] + size[right[t]] + 1;
+            total[t] = total[left[t]] + total[right[t]] + Math.abs(rows[t]);
+        }
+
+        // Splits t into its first k lines (splitLeft) and the rest (splitRight)
+        private void split(int t, int k) {
+            if (t == NIL) {
+                splitLeft = NIL;
+                splitRight = NIL;
+            } else if (size[left[t]] < k) {
+                split(right[t], k - size[left[t]] - 1);
+                right[t] = splitLeft;
+                pull(t);
+                splitLeft = t;
+            } else {
+                split(left[t], k);
+                left[t] = splitRight;
+                pull(t);
+                splitRight = t;
+            }
+        }
+
+        // Every line of a comes before every line of b
+        private int merge(int a, int b) {
+            if (a == NIL) {
+                return b;
+            }
+            if (b == NIL) {
+                return a;
+            }
+            if (priority[a] > priority[b]) {
+                right[a] = merge(right[a], b);
+                pull(a);
+                return a;
+            }
+            left[b] = merge(a, left[b]);
+            pull(b);
+            return b;
+        }
+
+        // Treap of new lines in O(k): a stack holds the right spine, popped while the new node outranks it
+        private int build(int[] lengths, IntUnaryOperator estimate) {
+            int[] spine = new int[lengths.length];
+            int top = 0;
+            for (int length : lengths) {
+                int node = allocate(-estimate.applyAsInt(length), length);
+                int last = NIL;
+                while (top > 0 && priority[spine[top - 1]] < priority[node]) {
+                    last = spine[--top];
+                    pull(last);
+                }
+                left[node] = last;
+                if (top > 0) {
+                    right[spine[top - 1]] = node;
+                }
+                spine[top++] = node;
+            }
+            int built = top > 0 ? spine[0] : NIL;
+            while (top > 0) {
+                pull(spine[--top]);
+            }
+            return built;
+        }
+
+        private int allocate(int rowCount, int length) {
+            int node = free;
+            if (node != NIL) {
+                free = left[node];
+            } else {
+                if (allocated == left.length) {
+                    int capacity = allocated * 2;
+                    left = Arrays.copyOf(left, capacity);
+                    right = Arrays.copyOf(right, capacity);
+                    priority = Arrays.copyOf(priority, capacity);
+                    size = Arrays.copyOf(size, capacity);
+                    total = Arrays.copyOf(total, capacity);
+                    rows = Arrays.copyOf(rows, capacity);
+                    chars = Arrays.copyOf(chars, capacity);
+                }
+                node = allocated++;
+            }
+            // xorshift32
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            left[node] = NIL;
+            right[node] = NIL;
+            priority[node] = seed;
+            rows[node] = rowCount;
+            chars[node] = length;
+            pull(node);
+            return node;
+        }
+
+        private void release(int t) {
+            if (t == NIL) {
+                return;
+            }
+            release(left[t]);
+            release(right[t]);
+            left[t] = free;
+            free = t;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+import java.time.LocalDateTime;
+
+/**
+ * DSA: One analysis in the history log.
+ * Only the small metadata fields live on the heap; the code and response bodies are read
+ * from the {@link HistoryStore} log each time they are asked for, from its hot cache when
+ * they were inflated recently.
+ */
+public class HistoryEntry {
+    final int index;
+    final String analysisType;
+    final String model;
+    final LocalDateTime timestamp;
+    private final HistoryStore store;
+
+    HistoryEntry(HistoryStore store, int index, String analysisType, String model, LocalDateTime timestamp) {
+        this.store = store;
+        this.index = index;
+        this.analysisType = analysisType;
+        this.model = model;
+        this.timestamp = timestamp;
+    }
+
+    String code() {
+        return store.readCode(index);
+    }
+
+    String codePrefix(int maxChars) {
+        return store.readCodePrefix(index, maxChars);
+    }
+
+    String response() {
+        return store.readResponse(index);
+    }
+}
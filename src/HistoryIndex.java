@@ -0,0 +1,611 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Full-text search over the history store.
+ *
+ * DSA: inverted index from token to a posting list of entry ids (sorted, since entries are only
+ * ever appended) with per-entry term frequencies and token positions. Per-entry metadata for
+ * filtering is kept in parallel primitive arrays, so neither filtering, ranking nor phrase matching
+ * touches the code or response bodies. Results are ranked with BM25. A quoted phrase matches where
+ * its tokens sit at consecutive positions: words under 2 chars, punctuation and HTML markup are not
+ * tokens, so they neither break nor have to match a phrase, and no phrase runs from the code into
+ * the response.
+ *
+ * The index always covers a prefix of the store; {@link #catchUp} extends it to the current size.
+ * {@link #save} writes it to a file next to the log, and the first catchUp reads that file back, so a
+ * start only tokenizes the entries appended since the last save. A saved index that is damaged, or
+ * no longer matches the store (its last entry has a different timestamp), is ignored and rebuilt.
+ *
+ * The postings and metadata stay in memory for as long as the index does, so their estimated size is
+ * charged to the {@link MemoryBudget}: the caches give up room for them as history grows.
+ */
+public final class HistoryIndex implements MemoryBudget.Holder {
+
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Entries indexed per lock hold, so searches can run while history is being indexed at startup
+    private static final int BATCH = 256;
+    private static final int FILE_MAGIC = 0x44504958;
+    private static final int FILE_VERSION = 1;
+    // Heap estimates: a posting list's object and array headers, a term's map node and String, and one
+    // entry's metadata across the four arrays
+    private static final long POSTINGS_BYTES = 96;
+    private static final long TERM_BYTES = 72;
+    private static final long ENTRY_BYTES = 20;
+
+    private static final class Postings {
+        int[] ids = new int[4];
+        int[] tfs = new int[4];
+        // DSA: each entry's positions as ascending delta-coded varints, packed back to back; the
+        // run for ids[i] starts at positionStarts[i] and holds tfs[i] values
+        int[] positionStarts = new int[4];
+        byte[] positions = new byte[16];
+        int size;
+        int positionBytes;
+
+        long bytes() {
+            return POSTINGS_BYTES + 12L * ids.length + positions.length;
+        }
+
+        void add(int id, Positions termPositions) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+                positionStarts = Arrays.copyOf(positionStarts, size * 2);
+            }
+            ids[size] = id;
+            tfs[size] = termPositions.size;
+            positionStarts[size] = positionBytes;
+            size++;
+            int previous = 0;
+            for (int i = 0; i < termPositions.size; i++) {
+                if (positionBytes + 5 > positions.length) {
+                    positions = Arrays.copyOf(positions, Math.max(positions.length * 2, positionBytes + 5));
+                }
+                int delta = termPositions.values[i] - previous;
+                previous = termPositions.values[i];
+                while ((delta & ~0x7F) != 0) {
+                    positions[positionBytes++] = (byte) (delta | 0x80);
+                    delta >>>= 7;
+                }
+                positions[positionBytes++] = (byte) delta;
+            }
+        }
+
+        // Positions of the term in the entry at posting `at`, ascending
+        int[] positions(int at) {
+            int[] out = new int[tfs[at]];
+            int pos = positionStarts[at];
+            int value = 0;
+            for (int i = 0; i < out.length; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = positions[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += delta;
+                out[i] = value;
+            }
+            return out;
+        }
+    }
+
+    // Growable list of one term's positions in the entry being indexed
+    private static final class Positions {
+        int[] values = new int[2];
+        int size;
+
+        void add(int position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+    }
+
+    /** Filters and text for one search. Null filters and an empty text match everything. */
+    public static final class Query {
+        final String text;
+        final String analysisType;
+        final String model;
+        final long fromMillis;
+        final long toMillis;
+
+        public Query(String text, String analysisType, String model, long fromMillis, long toMillis) {
+            this.text = text == null ? "" : text;
+            this.analysisType = analysisType;
+            this.model = model;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+    }
+
+    private final Path file;
+    // Whether the saved index has been read, and the entry count it holds (guarded by this)
+    private boolean loaded;
+    private int savedSize;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    // Per-entry metadata, indexed by entry id
+    private int[] docLengths = new int[64];
+    private int[] typeIds = new int[64];
+    private int[] modelIds = new int[64];
+    private long[] times = new long[64];
+    private int size;
+    private long totalLength;
+
+    // Small string table so metadata is stored as ints
+    private final Map<String, Integer> labelIds = new HashMap<>();
+    // Estimate of the above, kept up to date under the lock and read by the budget without it
+    private volatile long heapBytes = ENTRY_BYTES * 64;
+
+    /** An index saved to and read back from `file`; nothing is read until the first catchUp. */
+    public HistoryIndex(Path file) {
+        this.file = file;
+        MemoryBudget.global().register(this);
+    }
+
+    /** Estimated heap held by the postings and entry metadata. */
+    @Override
+    public long bytes() {
+        return heapBytes;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Indexes every store entry not yet in the index. Safe to call from any thread. */
+    public void catchUp(HistoryStore store) {
+        synchronized (this) {
+            if (!loaded) {
+                loaded = true;
+                load(store);
+            }
+        }
+        boolean indexed = true;
+        while (indexed) {
+            synchronized (this) {
+                int end = Math.min(store.size(), size + BATCH);
+                indexed = size < end;
+                while (size < end) {
+                    HistoryEntry entry = store.get(size);
+                    add(entry, entry.code(), entry.response());
+                }
+            }
+        }
+        // Outside the lock: the budget reads this index's size under its own
+        MemoryBudget.global().trim();
+    }
+
+    private void add(HistoryEntry entry, String code, String response) {
+        Map<String, Positions> terms = new HashMap<>();
+        int[] next = {0};
+        Consumer<String> sink = token -> terms.computeIfAbsent(token, k -> new Positions()).add(next[0]++);
+        int length = tokenize(code, false, sink);
+        // A position left empty between the two bodies keeps phrases from spanning them
+        next[0]++;
+        length += tokenize(response, true, sink);
+
+        int id = size;
+        long bytes = heapBytes;
+        if (id == docLengths.length) {
+            int capacity = id * 2;
+            bytes += ENTRY_BYTES * id;
+            docLengths = Arrays.copyOf(docLengths, capacity);
+            typeIds = Arrays.copyOf(typeIds, capacity);
+            modelIds = Arrays.copyOf(modelIds, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+        docLengths[id] = length;
+        typeIds[id] = labelId(entry.analysisType);
+        modelIds[id] = labelId(entry.model);
+        times[id] = epochMillis(entry);
+        totalLength += length;
+        size++;
+
+        for (Map.Entry<String, Positions> term : terms.entrySet()) {
+            Postings p = postings.get(term.getKey());
+            if (p == null) {
+                p = new Postings();
+                postings.put(term.getKey(), p);
+                bytes += TERM_BYTES + MemoryBoundedCache.stringBytes(term.getKey());
+            } else {
+                bytes -= p.bytes();
+            }
+            p.add(id, term.getValue());
+            bytes += p.bytes();
+        }
+        heapBytes = bytes;
+    }
+
+    /** Writes the index to its file if it has grown since it was read or last saved. */
+    public synchronized void save() {
+        if (!loaded || size == savedSize) {
+            return;
+        }
+        try {
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024), crc))) {
+                write(out);
+                out.writeLong(crc.getValue());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedSize = size;
+        } catch (IOException ex) {
+            // Next start rebuilds whatever was not saved
+            ex.printStackTrace();
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(size);
+        out.writeLong(totalLength);
+        String[] labels = new String[labelIds.size()];
+        labelIds.forEach((label, id) -> labels[id] = label);
+        out.writeInt(labels.length);
+        for (String label : labels) {
+            out.writeUTF(label);
+        }
+        for (int id = 0; id < size; id++) {
+            out.writeInt(docLengths[id]);
+            out.writeInt(typeIds[id]);
+            out.writeInt(modelIds[id]);
+            out.writeLong(times[id]);
+        }
+        out.writeInt(postings.size());
+        for (Map.Entry<String, Postings> term : postings.entrySet()) {
+            Postings p = term.getValue();
+            out.writeUTF(term.getKey());
+            out.writeInt(p.size);
+            out.writeInt(p.positionBytes);
+            for (int i = 0; i < p.size; i++) {
+                out.writeInt(p.ids[i]);
+                out.writeInt(p.tfs[i]);
+                out.writeInt(p.positionStarts[i]);
+            }
+            out.write(p.positions, 0, p.positionBytes);
+        }
+    }
+
+    // Reads the saved index into this empty one, or leaves it empty if the file is missing, damaged or stale
+    private void load(HistoryStore store) {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024), crc))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            long length = in.readLong();
+            String[] labels = new String[in.readInt()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = in.readUTF();
+            }
+            int capacity = Math.max(64, count);
+            int[] lengths = new int[capacity];
+            int[] types = new int[capacity];
+            int[] models = new int[capacity];
+            long[] stamps = new long[capacity];
+            for (int id = 0; id < count; id++) {
+                lengths[id] = in.readInt();
+                types[id] = in.readInt();
+                models[id] = in.readInt();
+                stamps[id] = in.readLong();
+            }
+            Map<String, Postings> terms = new HashMap<>();
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                Postings p = new Postings();
+                p.size = in.readInt();
+                p.positionBytes = in.readInt();
+                p.ids = new int[Math.max(4, p.size)];
+                p.tfs = new int[p.ids.length];
+                p.positionStarts = new int[p.ids.length];
+                for (int i = 0; i < p.size; i++) {
+                    p.ids[i] = in.readInt();
+                    p.tfs[i] = in.readInt();
+                    p.positionStarts[i] = in.readInt();
+                }
+                p.positions = new byte[Math.max(16, p.positionBytes)];
+                in.readFully(p.positions, 0, p.positionBytes);
+                terms.put(term, p);
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected || count > store.size()
+                    || (count > 0 && epochMillis(store.get(count - 1)) != stamps[count - 1])) {
+                return;
+            }
+            for (int i = 0; i < labels.length; i++) {
+                labelIds.put(labels[i], i);
+            }
+            docLengths = lengths;
+            typeIds = types;
+            modelIds = models;
+            times = stamps;
+            size = count;
+            totalLength = length;
+            postings.putAll(terms);
+            savedSize = count;
+            long bytes = ENTRY_BYTES * capacity;
+            for (Map.Entry<String, Postings> term : terms.entrySet()) {
+                bytes += TERM_BYTES + MemoryBoundedCache.stringBytes(term.getKey()) + term.getValue().bytes();
+            }
+            heapBytes = bytes;
+        } catch (NoSuchFileException ex) {
+            // First start with this index
+        } catch (IOException | RuntimeException ex) {
+            // Damaged or from another version: rebuilt from the store
+        }
+    }
+
+    private static long epochMillis(HistoryEntry entry) {
+        return entry.timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private int labelId(String label) {
+        return labelIds.computeIfAbsent(label, k -> labelIds.size());
+    }
+
+    /**
+     * Splits text into lowercase identifier tokens ([A-Za-z0-9_], 2+ chars) and passes them to sink
+     * in order. With skipTags, anything between '<' and '>' is ignored so HTML markup is not indexed.
+     * Returns the number of tokens seen.
+     */
+    static int tokenize(String text, boolean skipTags, Consumer<String> sink) {
+        int count = 0;
+        int start = -1;
+        boolean inTag = false;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            boolean wordChar = !inTag && (Character.isLetterOrDigit(c) || c == '_');
+            if (wordChar) {
+                if (start < 0) {
+                    start = i;
+                }
+                continue;
+            }
+            if (start >= 0 && i - start >= 2) {
+                sink.accept(text.substring(start, i).toLowerCase(Locale.ROOT));
+                count++;
+            }
+            start = -1;
+            if (skipTags) {
+                if (c == '<') {
+                    inTag = true;
+                } else if (c == '>') {
+                    inTag = false;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns up to limit matching entry ids, best first. With no search text the filtered
+     * entries are returned newest first.
+     */
+    public int[] search(Query query, int limit) {
+        List<List<String>> phrases = new ArrayList<>();
+        List<String> terms = new ArrayList<>();
+        parseQuery(query.text, phrases, terms);
+
+        synchronized (this) {
+            int typeId = query.analysisType == null ? -1 : labelIds.getOrDefault(query.analysisType, -2);
+            int modelId = query.model == null ? -1 : labelIds.getOrDefault(query.model, -2);
+            if (typeId == -2 || modelId == -2) {
+                return new int[0];
+            }
+            return terms.isEmpty()
+                    ? filterOnly(query, typeId, modelId, limit)
+                    : rank(query, terms, phrases, typeId, modelId, limit);
+        }
+    }
+
+    // Phrases with two or more tokens go to phrases; every distinct token, loose or quoted, to terms
+    private static void parseQuery(String text, List<List<String>> phrases, List<String> terms) {
+        int pos = 0;
+        StringBuilder loose = new StringBuilder();
+        while (pos < text.length()) {
+            int open = text.indexOf('"', pos);
+            int close = open < 0 ? -1 : text.indexOf('"', open + 1);
+            if (close < 0) {
+                loose.append(text, pos, text.length());
+                break;
+            }
+            loose.append(text, pos, open).append(' ');
+            List<String> phrase = new ArrayList<>();
+            tokenize(text.substring(open + 1, close), false, phrase::add);
+            if (phrase.size() > 1) {
+                phrases.add(phrase);
+            }
+            loose.append(' ').append(String.join(" ", phrase)).append(' ');
+            pos = close + 1;
+        }
+        tokenize(loose.toString(), false, token -> {
+            if (!terms.contains(token)) {
+                terms.add(token);
+            }
+        });
+    }
+
+    private boolean matchesFilters(int id, Query query, int typeId, int modelId) {
+        return (typeId < 0 || typeIds[id] == typeId)
+                && (modelId < 0 || modelIds[id] == modelId)
+                && times[id] >= query.fromMillis
+                && times[id] <= query.toMillis;
+    }
+
+    private int[] filterOnly(Query query, int typeId, int modelId, int limit) {
+        int[] results = new int[Math.min(limit, size)];
+        int found = 0;
+        for (int id = size - 1; id >= 0 && found < results.length; id--) {
+            if (matchesFilters(id, query, typeId, modelId)) {
+                results[found++] = id;
+            }
+        }
+        return Arrays.copyOf(results, found);
+    }
+
+    // AND of all terms: walk the shortest posting list and binary-search the others, then check the
+    // phrases on the positions of the entries that have every term
+    private int[] rank(Query query, List<String> terms, List<List<String>> phrases, int typeId, int modelId, int limit) {
+        List<Postings> lists = new ArrayList<>();
+        for (String term : terms) {
+            Postings p = postings.get(term);
+            if (p == null) {
+                return new int[0];
+            }
+            lists.add(p);
+        }
+        // Each phrase as the posting lists of its tokens, in order
+        Postings[][] phraseLists = new Postings[phrases.size()][];
+        for (int i = 0; i < phraseLists.length; i++) {
+            phraseLists[i] = phrases.get(i).stream().map(postings::get).toArray(Postings[]::new);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+        Postings shortest = lists.get(0);
+        double avgLength = size == 0 ? 1 : Math.max(1.0, (double) totalLength / size);
+
+        int[] ids = new int[shortest.size];
+        double[] scores = new double[shortest.size];
+        int found = 0;
+        int[] cursors = new int[lists.size()];
+        candidates:
+        for (int i = 0; i < shortest.size; i++) {
+            int id = shortest.ids[i];
+            if (!matchesFilters(id, query, typeId, modelId)) {
+                continue;
+            }
+            double score = 0;
+            for (int l = 0; l < lists.size(); l++) {
+                Postings p = lists.get(l);
+                int at = Arrays.binarySearch(p.ids, cursors[l], p.size, id);
+                if (at < 0) {
+                    cursors[l] = -at - 1;
+                    continue candidates;
+                }
+                cursors[l] = at;
+                double idf = Math.log(1 + (size - p.size + 0.5) / (p.size + 0.5));
+                double tf = p.tfs[at];
+                score += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * docLengths[id] / avgLength));
+            }
+            for (Postings[] phrase : phraseLists) {
+                if (!containsPhrase(phrase, id)) {
+                    continue candidates;
+                }
+            }
+            ids[found] = id;
+            scores[found] = score;
+            found++;
+        }
+
+        // DSA: bounded min-heap keeps the best `limit` candidates in O(n log k)
+        int k = Math.min(limit, found);
+        int[] heap = new int[k];
+        int heapSize = 0;
+        for (int i = 0; i < found; i++) {
+            if (heapSize < k) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, ids, scores);
+            } else if (k > 0 && better(i, heap[0], ids, scores)) {
+                heap[0] = i;
+                siftDown(heap, heapSize, ids, scores);
+            }
+        }
+        int[] results = new int[k];
+        for (int i = k - 1; i >= 0; i--) {
+            results[i] = ids[heap[0]];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, ids, scores);
+        }
+        return results;
+    }
+
+    // True if the entry has the phrase's tokens at consecutive positions; it is known to have each token
+    private static boolean containsPhrase(Postings[] phrase, int id) {
+        int[][] positions = new int[phrase.length][];
+        for (int t = 0; t < phrase.length; t++) {
+            positions[t] = phrase[t].positions(Arrays.binarySearch(phrase[t].ids, 0, phrase[t].size, id));
+        }
+        starts:
+        for (int start : positions[0]) {
+            for (int t = 1; t < phrase.length; t++) {
+                if (Arrays.binarySearch(positions[t], start + t) < 0) {
+                    continue starts;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Higher score wins; newer entry wins a tie
+    private static boolean better(int a, int b, int[] ids, double[] scores) {
+        return scores[a] != scores[b] ? scores[a] > scores[b] : ids[a] > ids[b];
+    }
+
+    private static void siftUp(int[] heap, int at, int[] ids, double[] scores) {
+        while (at > 0) {
+            int parent = (at - 1) / 2;
+            if (!better(heap[parent], heap[at], ids, scores)) {
+                return;
+            }
+            swap(heap, at, parent);
+            at = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, int[] ids, double[] scores) {
+        int at = 0;
+        while (true) {
+            int worst = at;
+            int left = 2 * at + 1;
+            int right = left + 1;
+            if (left < size && better(heap[worst], heap[left], ids, scores)) {
+                worst = left;
+            }
+            if (right < size && better(heap[worst], heap[right], ids, scores)) {
+                worst = right;
+            }
+            if (worst == at) {
+                return;
+            }
+            swap(heap, at, worst);
+            at = worst;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+    }
+}
@@ -0,0 +1,657 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Durable, append-only history of analyses.
+ *
+ * history.log holds length-prefixed records: int payloadLength, int crc32(payload), payload.
+ * A payload starts with a tag byte:
+ *   BLOB   code body: byte tag, 32-byte SHA-256 of the code's UTF-8 bytes, body
+ *   ENTRY  analysis: byte tag, long epochMillis, analysisType, model, long offset of the code's
+ *          BLOB record, response body
+ * Strings are (int byteLength, UTF-8 bytes). A body is (byte encoding, int rawLength, int storedLength,
+ * bytes), with the UTF-8 bytes stored raw or deflated; bodies under 512 bytes, or that deflate
+ * does not shrink, are stored raw.
+ * Logs whose first record has no tag predate this format and are not read: opening one fails, and
+ * {@link #openDefault} falls back to a throwaway store, leaving the old log untouched.
+ *
+ * Code is content-addressed: an append whose code matches an existing blob byte for byte points at
+ * that blob instead of writing the code again, so re-analyzing a file with every analysis type stores
+ * it once. Matching goes through a table of hash prefixes built from the log on the first append.
+ *
+ * history.idx holds one 8-byte log offset per ENTRY record, so startup reads the offsets and nothing
+ * else. Records are written to the log and forced to disk before their offset is added to the index;
+ * a new code blob is written in the same write as the entry that needs it. On open, any complete
+ * entries past the last indexed one are re-indexed and a torn tail (short header, short payload or bad
+ * checksum) is truncated away.
+ *
+ * Entries and bodies are read with positional reads, only when asked for, so nothing is mapped or
+ * re-mapped as the log grows and offsets are not limited to 2 GB. A deflated body is inflated from
+ * the log a piece at a time, which keeps a summary's prefix read short. Inflated bodies are kept in a hot cache bounded by an estimate of their heap
+ * size; appended bodies go straight in, since the next incremental analysis reads them back.
+ *
+ * Reads take no lock, so the history list can read entries on the EDT while an append is being
+ * forced to disk. Appends hold a lock of their own only to write and force; encoding, hashing and
+ * deflating happen before it is taken.
+ *
+ * Settings (system properties):
+ *   devpilot.history.hotBytes   inflated bodies kept in memory, in estimated heap bytes (default 8 MB;
+ *                              also counts against devpilot.memory.maxBytes, see MemoryBudget)
+ */
+public final class HistoryStore implements AutoCloseable {
+
+    private static final int HEADER_BYTES = 8;
+    private static final byte BLOB = (byte) 0x81;
+    private static final byte ENTRY = (byte) 0x82;
+    private static final int HASH_BYTES = 32;
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final int BODY_HEADER_BYTES = 1 + 2 * Integer.BYTES;
+    private static final int COMPRESS_MIN_BYTES = 512;
+    // Bytes a Cursor reads at a time; entry metadata fits in one read
+    private static final int CURSOR_BYTES = 512;
+    // Deflated bytes fed to the inflater at a time
+    private static final int INFLATE_INPUT_BYTES = 16 * 1024;
+
+    private final Path dir;
+    private final FileChannel log;
+    private final FileChannel idx;
+
+    // Appends take this lock; reads take none. An append fills in offsets[size] before it publishes
+    // the new size, so a reader that sees the size also sees the offset (and the log bytes behind it)
+    private final Object appendLock = new Object();
+    // DSA: Growable primitive array of record offsets (8 bytes per entry, no boxing); grown by copying,
+    // so a reader still holding the old array finds every entry it could have seen in it
+    private volatile long[] offsets = new long[64];
+    private volatile int size;
+    private volatile long logSize;
+
+    // Built on the first append (see findBlob); guarded by appendLock
+    private BlobIndex blobs;
+    // Inflated bodies by their position in the log
+    private final MemoryBoundedCache<Long, String> hot =
+            new MemoryBoundedCache<>(Long.getLong("devpilot.history.hotBytes", 8L << 20), Integer.MAX_VALUE, MemoryBoundedCache::stringBytes);
+
+    public HistoryStore(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        log = FileChannel.open(dir.resolve("history.log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        idx = FileChannel.open(dir.resolve("history.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    /** Opens the store under devpilot.history.dir (default ~/.devpilot), or a throwaway one if that fails. */
+    public static HistoryStore openDefault() {
+        String location = System.getProperty("devpilot.history.dir");
+        Path dir = location != null ? Paths.get(location) : Paths.get(System.getProperty("user.home"), ".devpilot");
+        try {
+            return new HistoryStore(dir);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            try {
+                return new HistoryStore(Files.createTempDirectory("devpilot-history"));
+            } catch (IOException fallbackEx) {
+                throw new UncheckedIOException(fallbackEx);
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        logSize = log.size();
+        if (logSize > HEADER_BYTES) {
+            byte first = tag(0);
+            if (first != BLOB && first != ENTRY) {
+                throw new IOException("history.log in " + dir + " is in an older, unsupported format");
+            }
+        }
+
+        // Trust index entries only while they are increasing and point inside the log
+        long idxCount = idx.size() / Long.BYTES;
+        ByteBuffer idxBuf = ByteBuffer.allocate((int) Math.min(idxCount * Long.BYTES, Integer.MAX_VALUE - 8));
+        idx.read(idxBuf, 0);
+        idxBuf.flip();
+        long nextOffset = 0;
+        while (idxBuf.remaining() >= Long.BYTES) {
+            long offset = idxBuf.getLong();
+            // Code blobs sit between entries without being indexed
+            nextOffset = skipBlobs(nextOffset, offset);
+            if (offset != nextOffset) {
+                break;
+            }
+            long end = recordEnd(offset);
+            if (end < 0) {
+                break;
+            }
+            addOffset(offset);
+            nextOffset = end;
+        }
+        boolean rewriteIndex = size != idxCount;
+
+        // Re-index whole entries that reached the log but not the index, then drop a torn tail
+        while (nextOffset < logSize) {
+            long end = recordEnd(nextOffset);
+            if (end < 0 || !checksumMatches(nextOffset)) {
+                break;
+            }
+            byte tag = tag(nextOffset);
+            if (tag == ENTRY) {
+                addOffset(nextOffset);
+                rewriteIndex = true;
+            } else if (tag != BLOB) {
+                break;
+            }
+            nextOffset = end;
+        }
+        if (nextOffset < logSize) {
+            log.truncate(nextOffset);
+            log.force(true);
+            logSize = nextOffset;
+        }
+
+        if (rewriteIndex) {
+            idx.truncate(0);
+            ByteBuffer out = ByteBuffer.allocate(size * Long.BYTES);
+            for (int i = 0; i < size; i++) {
+                out.putLong(offsets[i]);
+            }
+            out.flip();
+            writeFully(idx, out, 0);
+            idx.force(true);
+        }
+    }
+
+    // End offset of the record at offset, or -1 if its header or payload runs past the end of the log
+    private long recordEnd(long offset) throws IOException {
+        if (offset + HEADER_BYTES > logSize) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        log.read(header, offset);
+        int length = header.getInt(0);
+        long end = offset + HEADER_BYTES + length;
+        return length < 0 || end > logSize ? -1 : end;
+    }
+
+    // First complete non-blob record at or after offset, stopping at limit
+    private long skipBlobs(long offset, long limit) throws IOException {
+        while (offset < limit) {
+            long end = recordEnd(offset);
+            if (end < 0 || tag(offset) != BLOB) {
+                break;
+            }
+            offset = end;
+        }
+        return offset;
+    }
+
+    private byte tag(long offset) throws IOException {
+        ByteBuffer tag = ByteBuffer.allocate(1);
+        log.read(tag, offset + HEADER_BYTES);
+        return tag.get(0);
+    }
+
+    private boolean checksumMatches(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        log.read(header, offset);
+        ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+        log.read(payload, offset + HEADER_BYTES);
+        payload.flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == header.getInt(4);
+    }
+
+    private void addOffset(long offset) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        offsets[size] = offset;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Directory the store's files are in; files derived from the history can be kept next to them. */
+    public Path directory() {
+        return dir;
+    }
+
+    /**
+     * Appends an analysis and returns its index. The record is on disk when this returns. The code is
+     * encoded straight from the CharSequence, so an editor snapshot is not copied into a String first.
+     * Encoding and compression happen before the append lock is taken, and readers never wait for it.
+     */
+    public int append(CharSequence code, String analysisType, String model, String response, LocalDateTime timestamp) {
+        byte[] typeBytes = analysisType.getBytes(StandardCharsets.UTF_8);
+        byte[] modelBytes = model.getBytes(StandardCharsets.UTF_8);
+        byte[] codeBytes = utf8(code);
+        byte[] codeHash = sha256(codeBytes);
+        byte[] responseBody = encodeBody(response.getBytes(StandardCharsets.UTF_8));
+        long known;
+        synchronized (appendLock) {
+            known = findBlob(codeHash);
+        }
+        // Deflated unlocked; wasted only if another append stores the same code in the meantime
+        byte[] codeBody = known < 0 ? encodeBody(codeBytes) : null;
+
+        synchronized (appendLock) {
+            long offset = logSize;
+            long blobOffset = known < 0 ? findBlob(codeHash) : known;
+            ByteBuffer blob = null;
+            if (blobOffset < 0) {
+                blob = ByteBuffer.allocate(HEADER_BYTES + 1 + HASH_BYTES + codeBody.length);
+                blob.putInt(blob.capacity() - HEADER_BYTES).putInt(0);
+                blob.put(BLOB).put(codeHash).put(codeBody);
+                sealRecord(blob);
+                blobOffset = offset;
+                offset += blob.capacity();
+            }
+
+            int payloadLength = 1 + Long.BYTES + 2 * Integer.BYTES + typeBytes.length + modelBytes.length + Long.BYTES + responseBody.length;
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payloadLength);
+            record.putInt(payloadLength).putInt(0);
+            record.put(ENTRY);
+            record.putLong(timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            record.putInt(typeBytes.length).put(typeBytes);
+            record.putInt(modelBytes.length).put(modelBytes);
+            record.putLong(blobOffset);
+            record.put(responseBody);
+            sealRecord(record);
+
+            try {
+                if (blob != null) {
+                    writeFully(log, blob, logSize);
+                }
+                writeFully(log, record, offset);
+                log.force(false);
+                writeFully(idx, ByteBuffer.allocate(Long.BYTES).putLong(0, offset), (long) size * Long.BYTES);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not write history entry", ex);
+            }
+            if (blob != null) {
+                blobs.put(codeHash, blobOffset);
+                // Only text that is already a String; a snapshot is inflated from the log if it is read back
+                if (code instanceof String text) {
+                    cacheAppended(blobOffset + HEADER_BYTES + 1 + HASH_BYTES, codeBody, text);
+                }
+            }
+            cacheAppended(offset + HEADER_BYTES + payloadLength - responseBody.length, responseBody, response);
+            // Published last: readers go by size and logSize
+            logSize = offset + HEADER_BYTES + payloadLength;
+            addOffset(offset);
+            return size - 1;
+        }
+    }
+
+    private static byte[] utf8(CharSequence text) {
+        if (text instanceof String string) {
+            return string.getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            // Unpaired surrogates become '?', as String.getBytes does
+            ByteBuffer bytes = StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .encode(CharBuffer.wrap(text));
+            return Arrays.copyOf(bytes.array(), bytes.limit());
+        } catch (CharacterCodingException ex) {
+            throw new IllegalStateException("UTF-8 encoding failed", ex);
+        }
+    }
+
+    // Fills in the checksum of a record built in buf and flips it for writing
+    private static void sealRecord(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), HEADER_BYTES, buf.capacity() - HEADER_BYTES);
+        buf.putInt(4, (int) crc.getValue());
+        buf.flip();
+    }
+
+    // Body field for UTF-8 bytes: deflated when that makes it smaller, raw otherwise
+    private static byte[] encodeBody(byte[] raw) {
+        byte[] stored = raw;
+        byte encoding = RAW;
+        if (raw.length >= COMPRESS_MIN_BYTES) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                // Output that would not fit in fewer bytes than the input is not worth keeping
+                byte[] out = new byte[raw.length - 1];
+                int length = deflater.deflate(out);
+                if (deflater.finished()) {
+                    stored = Arrays.copyOf(out, length);
+                    encoding = DEFLATED;
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return ByteBuffer.allocate(BODY_HEADER_BYTES + stored.length)
+                .put(encoding).putInt(raw.length).putInt(stored.length).put(stored)
+                .array();
+    }
+
+    private void cacheAppended(long bodyPosition, byte[] body, String text) {
+        if (body[0] == DEFLATED) {
+            hot.put(bodyPosition, text);
+        }
+    }
+
+    // Offset of the blob record holding exactly these code bytes, or -1 (call with appendLock held)
+    private long findBlob(byte[] codeHash) {
+        if (blobs == null) {
+            blobs = new BlobIndex();
+            for (int i = 0; i < size; i++) {
+                Cursor in = entry(i);
+                skipMetadata(in);
+                long blobOffset = in.getLong();
+                byte[] hash = blobHash(blobOffset);
+                if (blobs.find(hash, candidate -> candidate == blobOffset) < 0) {
+                    blobs.put(hash, blobOffset);
+                }
+            }
+        }
+        return blobs.find(codeHash, candidate -> Arrays.equals(blobHash(candidate), codeHash));
+    }
+
+    private byte[] blobHash(long blobOffset) {
+        return new Cursor(blobOffset + HEADER_BYTES + 1).bytes(HASH_BYTES);
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    /** Returns the entry's metadata; code and response are left on disk. */
+    public HistoryEntry get(int index) {
+        Cursor in = entry(index);
+        long epochMillis = in.getLong();
+        String analysisType = in.getString();
+        String model = in.getString();
+        LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+        return new HistoryEntry(this, index, analysisType, model, timestamp);
+    }
+
+    String readCode(int index) {
+        return readCode(index, Integer.MAX_VALUE);
+    }
+
+    // Decodes only the first bytes of the code, enough for a one-line summary
+    String readCodePrefix(int index, int maxChars) {
+        String prefix = readCode(index, maxChars * 4);
+        return prefix.length() > maxChars ? prefix.substring(0, maxChars) : prefix;
+    }
+
+    // The code's text, or of its first maxBytes UTF-8 bytes
+    private String readCode(int index, int maxBytes) {
+        Cursor in = entry(index);
+        skipMetadata(in);
+        return readBody(in.getLong() + HEADER_BYTES + 1 + HASH_BYTES, maxBytes);
+    }
+
+    String readResponse(int index) {
+        Cursor in = entry(index);
+        skipMetadata(in);
+        in.getLong();
+        return readBody(in.position, Integer.MAX_VALUE);
+    }
+
+    // Cursor at the timestamp of an entry, past its tag
+    private Cursor entry(int index) {
+        Cursor in = new Cursor(payloadStart(index));
+        if (in.get() != ENTRY) {
+            throw new IllegalStateException("History record " + index + " is not an entry");
+        }
+        return in;
+    }
+
+    // Moves a cursor at an entry's timestamp past the timestamp, analysis type and model
+    private static void skipMetadata(Cursor in) {
+        in.skip(Long.BYTES);
+        in.skip(in.getInt());
+        in.skip(in.getInt());
+    }
+
+    // Text of the body at pos, or of its first maxBytes UTF-8 bytes (a char cut in half decodes as U+FFFD)
+    private String readBody(long pos, int maxBytes) {
+        Cursor in = new Cursor(pos);
+        byte encoding = in.get();
+        int rawLength = in.getInt();
+        int storedLength = in.getInt();
+        if (encoding == RAW) {
+            return new String(in.bytes(Math.min(rawLength, maxBytes)), StandardCharsets.UTF_8);
+        }
+        String cached = hot.get(pos);
+        if (cached != null) {
+            return cached;
+        }
+        int length = Math.min(rawLength, maxBytes);
+        byte[] raw = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            // Input goes in a piece at a time, so a prefix reads little more of the log than it needs
+            int unread = storedLength;
+            int done = 0;
+            while (done < length) {
+                if (inflater.needsInput() && unread > 0) {
+                    byte[] input = in.bytes(Math.min(INFLATE_INPUT_BYTES, unread));
+                    unread -= input.length;
+                    inflater.setInput(input);
+                }
+                int inflated = inflater.inflate(raw, done, length - done);
+                if (inflated == 0 && (inflater.finished() || (inflater.needsInput() && unread == 0) || inflater.needsDictionary())) {
+                    throw new IllegalStateException("History body at " + pos + " is shorter than its recorded length");
+                }
+                done += inflated;
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Corrupt history body at " + pos, ex);
+        } finally {
+            inflater.end();
+        }
+        String text = new String(raw, StandardCharsets.UTF_8);
+        // Prefixes are not cached; they would be taken for the whole body
+        if (length == rawLength) {
+            hot.put(pos, text);
+        }
+        return text;
+    }
+
+    private long payloadStart(int index) {
+        // Size first: the array read after it holds every offset below that size
+        int published = size;
+        if (index < 0 || index >= published) {
+            throw new IndexOutOfBoundsException("History index " + index + " out of range 0.." + (published - 1));
+        }
+        return offsets[index] + HEADER_BYTES;
+    }
+
+    // Reads the log forward from a position through a small window, one positional read per refill
+    private final class Cursor {
+        private final ByteBuffer window = ByteBuffer.allocate(CURSOR_BYTES).limit(0);
+        // Log position of the next unread byte
+        long position;
+
+        Cursor(long position) {
+            this.position = position;
+        }
+
+        byte get() {
+            byte value = fill(1).get();
+            position++;
+            return value;
+        }
+
+        int getInt() {
+            int value = fill(Integer.BYTES).getInt();
+            position += Integer.BYTES;
+            return value;
+        }
+
+        long getLong() {
+            long value = fill(Long.BYTES).getLong();
+            position += Long.BYTES;
+            return value;
+        }
+
+        // A length-prefixed string
+        String getString() {
+            return new String(bytes(getInt()), StandardCharsets.UTF_8);
+        }
+
+        void skip(int bytes) {
+            if (bytes <= window.remaining()) {
+                window.position(window.position() + bytes);
+            } else {
+                window.limit(0);
+            }
+            position += bytes;
+        }
+
+        byte[] bytes(int length) {
+            byte[] out = new byte[length];
+            int buffered = Math.min(length, window.remaining());
+            window.get(out, 0, buffered);
+            if (buffered < length) {
+                // Anything longer than the window is read straight into the result
+                ByteBuffer rest = ByteBuffer.wrap(out, buffered, length - buffered);
+                readFully(rest, position + buffered);
+                if (rest.hasRemaining()) {
+                    throw new IllegalStateException("History log ends inside the record at " + position);
+                }
+            }
+            position += length;
+            return out;
+        }
+
+        // The window with at least `bytes` unread in it, refilled from the log at the cursor if needed
+        private ByteBuffer fill(int bytes) {
+            if (window.remaining() < bytes) {
+                long readFrom = position + window.remaining();
+                window.compact();
+                window.limit((int) Math.min(window.capacity(), window.position() + Math.max(0, logSize - readFrom)));
+                readFully(window, readFrom);
+                window.flip();
+                if (window.remaining() < bytes) {
+                    throw new IllegalStateException("History log ends inside the record at " + position);
+                }
+            }
+            return window;
+        }
+    }
+
+    // Reads from the log at position until buf is full or the log ends
+    private void readFully(ByteBuffer buf, long position) {
+        try {
+            while (buf.hasRemaining()) {
+                int read = log.read(buf, position);
+                if (read < 0) {
+                    return;
+                }
+                position += read;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not read history log", ex);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    // DSA: Open addressing with linear probing, from the first 8 bytes of a code blob's SHA-256 to the
+    // blob's log offset (-1 marks a free slot). The hash is already uniform, so its prefix is the probe
+    // start as is. Different blobs may share a prefix; find() has the caller compare the full hash.
+    private static final class BlobIndex {
+        private long[] keys = new long[64];
+        private long[] offsets = newSlots(64);
+        private int size;
+
+        private static long[] newSlots(int capacity) {
+            long[] slots = new long[capacity];
+            Arrays.fill(slots, -1);
+            return slots;
+        }
+
+        private static long prefix(byte[] hash) {
+            return ByteBuffer.wrap(hash).getLong();
+        }
+
+        long find(byte[] hash, LongPredicate matches) {
+            long key = prefix(hash);
+            int mask = keys.length - 1;
+            for (int slot = (int) key & mask; offsets[slot] >= 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key && matches.test(offsets[slot])) {
+                    return offsets[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(byte[] hash, long offset) {
+            // Kept at most half full so probe runs stay short
+            if ((size + 1) * 2 > keys.length) {
+                long[] oldKeys = keys;
+                long[] oldOffsets = offsets;
+                keys = new long[oldKeys.length * 2];
+                offsets = newSlots(oldKeys.length * 2);
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldOffsets[i] >= 0) {
+                        insert(oldKeys[i], oldOffsets[i]);
+                    }
+                }
+            }
+            insert(prefix(hash), offset);
+        }
+
+        private void insert(long key, long offset) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (offsets[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            offsets[slot] = offset;
+            size++;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            log.close();
+            idx.close();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import java.awt.Color;
+
+/**
+ * Wraps AI feedback HTML in the page shown by the output and history panes.
+ * The style sheet depends only on the theme colors, so it is built once per page rather than on
+ * every render; wrapping is a single sized StringBuilder pass over the content.
+ */
+public final class HtmlPage {
+
+    private static final String SUFFIX = "</body></html>";
+
+    private final String prefix;
+
+    public HtmlPage(Color background, Color foreground, Color codeBackground, Color border) {
+        String style = "body { font-family: Segoe UI, sans-serif; background-color: " + toHex(background) + "; color: " + toHex(foreground) + "; margin: 10px; }" +
+                "pre { background-color: " + toHex(codeBackground) + "; border: 1px solid " + toHex(border) + "; padding: 10px; border-radius: 5px; white-space: pre-wrap; word-wrap: break-word; }" +
+                "code { font-family: Consolas, monospace; }" +
+                "ul { margin-left: 20px; }";
+        this.prefix = "<html><head><style>" + style + "</style></head><body>";
+    }
+
+    public String wrap(String content) {
+        return new StringBuilder(prefix.length() + content.length() + SUFFIX.length())
+                .append(prefix).append(content).append(SUFFIX).toString();
+    }
+
+    private static String toHex(Color color) {
+        return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+    }
+}
@@ -0,0 +1,294 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AsyncBoxView;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.BoxView;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+import java.awt.Graphics;
+import java.awt.Shape;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Rendering stage for AI feedback.
+ *
+ * Parsing: {@link #render} wraps the content in the {@link HtmlPage} and parses it into an
+ * HTMLDocument on the calling thread. A document that no component shows yet has no views to
+ * update, so this is safe off the EDT, and showing the result is a single setDocument call. Parses
+ * run one at a time: the kit and the default style sheet every document links to are shared, and
+ * neither is safe to use from several jobs' threads at once.
+ *
+ * Layout: panes that install {@link #newEditorKit} lay out the body in an AsyncBoxView. Its
+ * children are measured on Swing's layout queue thread, and the EDT only paints the blocks that
+ * are already done. The first screenful appears right away; long {@code <pre>} blocks further
+ * down fill in without blocking input. The body's own CSS box (margin and background) is not
+ * drawn in this mode, so the panes supply those through their margin and background.
+ *
+ * Documents for history entries are kept in a small LRU keyed by history index, so reopening an
+ * entry skips the parse. Job tabs show their document from the same LRU, so finished answers are
+ * charged to the {@link MemoryBudget} like every other cache; a tab whose document is evicted lets
+ * go of it and parses it again when it is next shown. Settings (system properties):
+ *   devpilot.render.cacheEntries   parsed history documents kept in memory (default 16)
+ */
+public final class HtmlRenderer {
+
+    private final HtmlPage page;
+    // Guarded by itself: used by whichever thread is rendering
+    private final HTMLEditorKit parserKit = new LazyLayoutKit();
+    // Rough heap per element: the element, its attribute set and the view built for it once shown
+    private static final long ELEMENT_BYTES = 200;
+
+    private final MemoryBoundedCache<Integer, HTMLDocument> byHistoryIndex;
+    private volatile IntConsumer evictedListener = index -> { };
+
+    public HtmlRenderer(HtmlPage page) {
+        this.page = page;
+        // DSA: LRU of the least recently viewed documents, bounded by count here and by bytes through the global budget
+        this.byHistoryIndex = new MemoryBoundedCache<>(Long.MAX_VALUE, Integer.getInteger("devpilot.render.cacheEntries", 16),
+                HtmlRenderer::documentBytes, (index, document) -> evictedListener.accept(index));
+        // Loads the default style sheet now rather than racing to load it on two threads later
+        parserKit.getStyleSheet();
+    }
+
+    /** An editor kit for an output pane; each pane needs its own instance. */
+    public HTMLEditorKit newEditorKit() {
+        return new LazyLayoutKit();
+    }
+
+    /** Wraps and parses the content. Call it off the EDT and hand the result to setDocument on the EDT. */
+    public HTMLDocument render(String content) {
+        String html = page.wrap(content);
+        synchronized (parserKit) {
+            HTMLDocument document = (HTMLDocument) parserKit.createDefaultDocument();
+            // The page has no charset directive, but be sure a stray one in model output is not acted on
+            document.putProperty("IgnoreCharsetDirective", Boolean.TRUE);
+            try {
+                parserKit.read(new StringReader(html), document, 0);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not parse response HTML", ex);
+            } catch (BadLocationException ex) {
+                throw new IllegalStateException("Could not parse response HTML", ex);
+            }
+            return document;
+        }
+    }
+
+    /** The parsed document of a history entry, or null if it is not cached. */
+    public HTMLDocument cached(int historyIndex) {
+        return byHistoryIndex.get(historyIndex);
+    }
+
+    public void cache(int historyIndex, HTMLDocument document) {
+        byHistoryIndex.put(historyIndex, document);
+    }
+
+    /** Called, on whichever thread evicted it, with the history index of each document dropped from the cache. */
+    public void onEvicted(IntConsumer listener) {
+        evictedListener = listener;
+    }
+
+    // Heap estimate: the text at two bytes per char plus a fixed cost per element
+    static long documentBytes(HTMLDocument document) {
+        document.readLock();
+        try {
+            return 2L * document.getLength() + ELEMENT_BYTES * countElements(document.getDefaultRootElement());
+        } finally {
+            document.readUnlock();
+        }
+    }
+
+    private static long countElements(Element element) {
+        long count = 1;
+        for (int i = 0; i < element.getElementCount(); i++) {
+            count += countElements(element.getElement(i));
+        }
+        return count;
+    }
+
+    /** Cached document of a history entry, parsing `response` on the calling thread on a miss. */
+    public HTMLDocument renderHistory(int historyIndex, String response) {
+        HTMLDocument document = cached(historyIndex);
+        if (document == null) {
+            document = render(response);
+            cache(historyIndex, document);
+        }
+        return document;
+    }
+
+    // Body view: its blocks are laid out on the layout queue, except those a paint reaches first
+    private static final class LazyBodyView extends AsyncBoxView {
+        private AttributeSet attributes;
+
+        LazyBodyView(Element elem) {
+            super(elem, View.Y_AXIS);
+        }
+
+        @Override
+        protected void loadChildren(ViewFactory f) {
+            Element body = getElement();
+            View[] blocks = new View[body.getElementCount()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new DeferredBlockView(body.getElement(i));
+            }
+            replace(0, 0, blocks);
+        }
+
+        // The body's CSS (font, color) has to reach the blocks, which resolve inherited style through their parent view
+        @Override
+        public AttributeSet getAttributes() {
+            if (attributes == null) {
+                attributes = ((HTMLDocument) getDocument()).getStyleSheet().getViewAttributes(this);
+            }
+            return attributes;
+        }
+
+        // Not synchronized: AsyncBoxView creates child states while holding its child list and the
+        // children call this from setParent, so taking the view's lock first here could deadlock
+        // against the layout thread, which takes them in the opposite order
+        @Override
+        public void preferenceChanged(View child, boolean width, boolean height) {
+            // Children can report a change while they are being created, before AsyncBoxView has
+            // a ChildState for them; their first layout pass measures them anyway
+            if (child != null) {
+                ChildState state = getChildState(getViewIndex(child.getStartOffset(), Position.Bias.Forward));
+                if (state == null || state.getChildView() != child) {
+                    return;
+                }
+            }
+            super.preferenceChanged(child, width, height);
+        }
+    }
+
+    /**
+     * Stands in for one block of the body and creates the block's real view the first time it is
+     * measured or painted. Showing a document then only builds views for the blocks on screen; the
+     * layout thread builds the rest. AsyncBoxView serializes access to each child, so loading
+     * happens on one thread at a time.
+     */
+    private static final class DeferredBlockView extends BoxView {
+        private boolean loaded;
+
+        DeferredBlockView(Element elem) {
+            super(elem, View.Y_AXIS);
+        }
+
+        @Override
+        protected void loadChildren(ViewFactory f) {
+            // Deferred to ensureLoaded
+        }
+
+        private synchronized void ensureLoaded() {
+            if (!loaded) {
+                loaded = true;
+                ViewFactory f = getViewFactory();
+                if (f != null) {
+                    replace(0, 0, new View[]{f.create(getElement())});
+                }
+            }
+        }
+
+        // Transparent for style: the real view inherits from the body, not from this wrapper
+        @Override
+        public AttributeSet getAttributes() {
+            View parent = getParent();
+            return parent != null ? parent.getAttributes() : super.getAttributes();
+        }
+
+        // The one child covers the whole element
+        @Override
+        protected int getViewIndexAtPosition(int pos) {
+            return 0;
+        }
+
+        @Override
+        public float getMinimumSpan(int axis) {
+            ensureLoaded();
+            return super.getMinimumSpan(axis);
+        }
+
+        @Override
+        public float getPreferredSpan(int axis) {
+            ensureLoaded();
+            return super.getPreferredSpan(axis);
+        }
+
+        @Override
+        public float getMaximumSpan(int axis) {
+            ensureLoaded();
+            return super.getMaximumSpan(axis);
+        }
+
+        @Override
+        public void setSize(float width, float height) {
+            ensureLoaded();
+            super.setSize(width, height);
+        }
+
+        @Override
+        public void paint(Graphics g, Shape allocation) {
+            ensureLoaded();
+            super.paint(g, allocation);
+        }
+
+        @Override
+        public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+            ensureLoaded();
+            return super.modelToView(pos, a, b);
+        }
+
+        @Override
+        public int viewToModel(float x, float y, Shape a, Position.Bias[] bias) {
+            ensureLoaded();
+            return super.viewToModel(x, y, a, bias);
+        }
+
+        // Edits inside the block go to the real view; the block itself maps one-to-one onto its element
+        @Override
+        public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            if (loaded) {
+                getView(0).insertUpdate(e, a, f);
+            }
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            if (loaded) {
+                getView(0).removeUpdate(e, a, f);
+            }
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            if (loaded) {
+                getView(0).changedUpdate(e, a, f);
+            }
+        }
+    }
+
+    // HTMLEditorKit whose body view lays out its blocks on the layout queue instead of the EDT
+    private static final class LazyLayoutKit extends HTMLEditorKit {
+        private final ViewFactory factory = new HTMLFactory() {
+            @Override
+            public View create(Element elem) {
+                if (elem.getAttributes().getAttribute(StyleConstants.NameAttribute) == HTML.Tag.BODY) {
+                    return new LazyBodyView(elem);
+                }
+                return super.create(elem);
+            }
+        };
+
+        @Override
+        public ViewFactory getViewFactory() {
+            return factory;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Re-analysis of code that changed a little since it was last analyzed.
+ *
+ * For each analysis type and model the analyzer remembers the history entry of the last successful
+ * analysis of a whole file in this session; a previous response is only built on by the model that
+ * wrote it. When code is analyzed again it diffs the code against that entry and, if only a
+ * few lines changed, plans a prompt with the previous response and the diff (with some context)
+ * in place of the whole file. The model answers with the complete updated response, which is
+ * recorded in history like any other and becomes the baseline for the next run.
+ *
+ * Types whose response is the rewritten code itself are always sent in full, since their answer
+ * would have to re-emit the whole file anyway (see {@link AnalysisPipeline#reducesWithModel}).
+ *
+ * Settings (system properties):
+ *   devpilot.incremental.context    unchanged lines shown around each change (default 3)
+ *   devpilot.incremental.maxEdits   added plus removed lines above which the whole file is sent (default 1000)
+ */
+public final class IncrementalAnalyzer {
+
+    static final int CONTEXT_LINES = Integer.getInteger("devpilot.incremental.context", 3);
+    static final int MAX_EDITS = Integer.getInteger("devpilot.incremental.maxEdits", 1000);
+
+    /** A prompt that sends the changes since an earlier analysis instead of the whole file. */
+    public static final class Plan {
+        final String prompt;
+        final int baselineIndex;
+        final int editedLines;
+        // Length of the prompt that would have sent the whole file
+        final int fullPromptLength;
+
+        Plan(String prompt, int baselineIndex, int editedLines, int fullPromptLength) {
+            this.prompt = prompt;
+            this.baselineIndex = baselineIndex;
+            this.editedLines = editedLines;
+            this.fullPromptLength = fullPromptLength;
+        }
+    }
+
+    private final HistoryStore history;
+    // Keyed by analysis type and model, see baselineKey
+    private final Map<String, Integer> baselines = new ConcurrentHashMap<>();
+
+    public IncrementalAnalyzer(HistoryStore history) {
+        this.history = history;
+    }
+
+    /**
+     * The incremental prompt for this code, or null when the whole file should be sent: there is no
+     * baseline for the type and model, the code is unchanged (so re-asking means a fresh answer is wanted), too
+     * much changed, or the diff plus the previous response is no shorter than the file.
+     */
+    public Plan plan(CharSequence code, String analysisType, String model) {
+        Integer baseline = baselines.get(baselineKey(analysisType, model));
+        if (baseline == null || !AnalysisPipeline.reducesWithModel(analysisType)) {
+            return null;
+        }
+        HistoryEntry entry = history.get(baseline);
+        String[] before = LineDiff.lines(entry.code());
+        String[] after = LineDiff.lines(code);
+        List<LineDiff.Change> changes = LineDiff.diff(before, after, MAX_EDITS);
+        if (changes == null || changes.isEmpty()) {
+            return null;
+        }
+        String prompt = AnalysisPipeline.buildIncrementalPrompt(entry.response(), LineDiff.unified(before, after, changes, CONTEXT_LINES), analysisType);
+        int fullPromptLength = AnalysisPipeline.buildPrompt(code, analysisType).length();
+        if (prompt.length() >= fullPromptLength) {
+            return null;
+        }
+        return new Plan(prompt, baseline, LineDiff.editedLines(changes), fullPromptLength);
+    }
+
+    /**
+     * Makes a recorded analysis the baseline for its type and the model that answered. Error pages are
+     * skipped, and so are answers about only part of the file (`wholeFile` false, as when compaction
+     * cut it to fit): a later diff against the whole recorded code would ask the model to update
+     * findings for lines it never saw.
+     */
+    public void analyzed(String analysisType, String model, int historyIndex, String response, boolean wholeFile) {
+        if (wholeFile && !response.isEmpty() && !AnalysisPipeline.isErrorPage(response)) {
+            baselines.put(baselineKey(analysisType, model), historyIndex);
+        }
+    }
+
+    private static String baselineKey(String analysisType, String model) {
+        return analysisType + "\n" + model;
+    }
+}
@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background jobs several at a time, and lets identical jobs share one run.
+ *
+ * Submitted work waits in a FIFO queue for one of `devpilot.jobs.concurrency` worker threads. What
+ * reaches the network is still paced by {@link RequestScheduler}, so this limit only bounds how much
+ * prompt building, parsing and rendering happens at once. A job submitted with the key of a run that
+ * is queued or in progress attaches to that run instead of starting another: it sees the run's output
+ * so far and gets the same result. Cancelling a job detaches it; the run itself is cancelled once no
+ * job is left on it.
+ *
+ * Listeners are called on worker threads, and on the cancelling thread for a cancelled job; a UI
+ * listener has to hand off to its own thread.
+ *
+ * Settings (system properties):
+ *   devpilot.jobs.concurrency   runs in progress at once (default 4)
+ */
+public final class JobQueue<T> {
+
+    public interface Task<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    /** How a running task reports progress; every report notifies all jobs attached to the run. */
+    public interface Progress {
+        void status(String text);
+
+        void parts(int done, int total);
+
+        /** Adds streamed output; jobs that attach later see everything appended so far. */
+        void append(String text);
+
+        /** Runs `hook` if the run is cancelled, for work an interrupt does not stop (an open stream). */
+        void onCancel(Runnable hook);
+    }
+
+    public interface Listener<T> {
+        void changed(Job<T> job);
+    }
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    /** One request for work; jobs with the same key may share a run. */
+    public static final class Job<T> {
+        final int id;
+        final String title;
+        final long submittedNanos = System.nanoTime();
+        private final JobQueue<T> queue;
+        private final JobQueue<T>.Run run;
+        private final Listener<T> listener;
+        private final boolean shared;
+        private volatile boolean cancelled;
+
+        private Job(JobQueue<T> queue, int id, String title, JobQueue<T>.Run run, Listener<T> listener, boolean shared) {
+            this.queue = queue;
+            this.id = id;
+            this.title = title;
+            this.run = run;
+            this.listener = listener;
+            this.shared = shared;
+        }
+
+        public State state() {
+            return cancelled ? State.CANCELLED : run.state;
+        }
+
+        public boolean isFinished() {
+            return state().compareTo(State.DONE) >= 0;
+        }
+
+        /** True if this job joined a run that another job started. */
+        public boolean isShared() {
+            return shared;
+        }
+
+        public String status() {
+            return run.status;
+        }
+
+        public int partsDone() {
+            return run.partsDone;
+        }
+
+        public int partsTotal() {
+            return run.partsTotal;
+        }
+
+        public String output() {
+            return run.output();
+        }
+
+        public int outputLength() {
+            return run.outputLength();
+        }
+
+        /** Streamed output from `start` on, so a view can add only what it has not shown yet. */
+        public String outputFrom(int start) {
+            return run.outputFrom(start);
+        }
+
+        /** The result once the state is DONE, else null. */
+        public T result() {
+            return state() == State.DONE ? run.result : null;
+        }
+
+        /** The failure once the state is FAILED, else null. */
+        public Throwable error() {
+            return state() == State.FAILED ? run.error : null;
+        }
+
+        public void cancel() {
+            queue.cancel(this);
+        }
+    }
+
+    private final ExecutorService workers;
+    // Runs that are queued or in progress, by key (guarded by this)
+    private final Map<Object, Run> inFlight = new HashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    public JobQueue(int concurrency) {
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "devpilot-job-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static <T> JobQueue<T> createDefault() {
+        return new JobQueue<>(Integer.getInteger("devpilot.jobs.concurrency", 4));
+    }
+
+    /**
+     * Queues the task, or attaches to the run already queued or in progress under an equal key. The
+     * listener hears about every change to the job until it finishes.
+     */
+    public Job<T> submit(Object key, String title, Task<T> task, Listener<T> listener) {
+        Job<T> job;
+        boolean start;
+        synchronized (this) {
+            Run run = inFlight.get(key);
+            start = run == null;
+            if (start) {
+                run = new Run(key, task);
+                inFlight.put(key, run);
+            }
+            job = new Job<>(this, ids.incrementAndGet(), title, run, listener, !start);
+            run.jobs.add(job);
+            if (start) {
+                run.future = workers.submit(run::execute);
+            }
+        }
+        listener.changed(job);
+        return job;
+    }
+
+    private void cancel(Job<T> job) {
+        Run abandoned = null;
+        synchronized (this) {
+            if (job.isFinished()) {
+                return;
+            }
+            job.cancelled = true;
+            job.run.jobs.remove(job);
+            if (job.run.jobs.isEmpty()) {
+                inFlight.remove(job.run.key, job.run);
+                abandoned = job.run;
+            }
+        }
+        if (abandoned != null) {
+            abandoned.cancel();
+        }
+        job.listener.changed(job);
+    }
+
+    // One execution of a task, shared by the jobs attached to it
+    private final class Run implements Progress {
+        final Object key;
+        final Task<T> task;
+        final List<Job<T>> jobs = new CopyOnWriteArrayList<>();
+        volatile State state = State.QUEUED;
+        volatile String status = "Queued";
+        volatile int partsDone;
+        volatile int partsTotal;
+        volatile T result;
+        volatile Throwable error;
+        volatile Future<?> future;
+        private volatile boolean cancelled;
+        // Streamed output and cancel hooks (guarded by this)
+        private final StringBuilder output = new StringBuilder();
+        private final List<Runnable> cancelHooks = new ArrayList<>();
+
+        Run(Object key, Task<T> task) {
+            this.key = key;
+            this.task = task;
+        }
+
+        void execute() {
+            state = State.RUNNING;
+            status = "Starting...";
+            notifyJobs();
+            State end;
+            try {
+                result = task.run(this);
+                end = State.DONE;
+            } catch (Throwable ex) {
+                error = ex;
+                end = cancelled ? State.CANCELLED : State.FAILED;
+            }
+            synchronized (JobQueue.this) {
+                inFlight.remove(key, this);
+                state = end;
+            }
+            notifyJobs();
+        }
+
+        void cancel() {
+            List<Runnable> hooks;
+            synchronized (this) {
+                cancelled = true;
+                hooks = new ArrayList<>(cancelHooks);
+            }
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(true);
+            }
+            for (Runnable hook : hooks) {
+                hook.run();
+            }
+        }
+
+        synchronized String output() {
+            return output.toString();
+        }
+
+        synchronized int outputLength() {
+            return output.length();
+        }
+
+        synchronized String outputFrom(int start) {
+            return output.substring(start);
+        }
+
+        @Override
+        public void status(String text) {
+            status = text;
+            notifyJobs();
+        }
+
+        @Override
+        public void parts(int done, int total) {
+            partsDone = done;
+            partsTotal = total;
+            notifyJobs();
+        }
+
+        @Override
+        public void append(String text) {
+            synchronized (this) {
+                output.append(text);
+            }
+            notifyJobs();
+        }
+
+        @Override
+        public void onCancel(Runnable hook) {
+            synchronized (this) {
+                if (!cancelled) {
+                    cancelHooks.add(hook);
+                    return;
+                }
+            }
+            hook.run();
+        }
+
+        private void notifyJobs() {
+            for (Job<T> job : jobs) {
+                job.listener.changed(job);
+            }
+        }
+    }
+}
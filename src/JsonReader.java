@@ -0,0 +1,557 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Single-pass pull reader for JSON.
+ * Reads tokens straight from a CharSequence (or UTF-8 bytes) without building a tree; callers walk
+ * the shapes they care about and {@link #skipValue()} the rest. Strings without escapes are
+ * returned as one subSequence copy, and skipped strings are never materialized.
+ *
+ * UTF-8 bytes are decoded as the reader goes, into a window of {@value #WINDOW_CHARS} chars, so a
+ * large body is never held as chars all at once. The window only grows for a number longer than it.
+ *
+ * The grammar is RFC 8259's: a comma only between members or elements, no trailing commas, names
+ * followed by ':', no raw control characters in strings, and numbers in JSON's own format.
+ * Malformed input raises IllegalStateException with the offending position once the reader reaches
+ * it; input the caller never reads, such as anything after the top-level value, is not checked.
+ * Let through as they are: duplicate names, a {@code \\u} escape for half a surrogate pair on its
+ * own, and (for byte input) malformed UTF-8, which decodes as U+FFFD.
+ */
+public final class JsonReader {
+
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private static final int WINDOW_CHARS = 8192;
+
+    // What the innermost container (or the document) expects next
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    // After an element: ',' or ']'
+    private static final int NONEMPTY_ARRAY = 3;
+    // After a ',' in an array: an element
+    private static final int ARRAY_NEXT = 4;
+    private static final int EMPTY_OBJECT = 5;
+    // After a name and its ':': the value
+    private static final int DANGLING_NAME = 6;
+    // After a member: ',' or '}'
+    private static final int NONEMPTY_OBJECT = 7;
+    // After a ',' in an object: a name
+    private static final int OBJECT_NEXT = 8;
+
+    // The whole input, or for bytes the decoded window
+    private CharSequence in;
+    private int pos;
+    // Reused for strings that contain escapes
+    private final StringBuilder scratch = new StringBuilder();
+    // DSA: stack of scopes, one per open container above the document
+    private int[] scopes = new int[16];
+    private int depth;
+
+    // Byte input only: the bytes left to decode, the window they are decoded into, and how many
+    // chars have already slid out of it (for error positions)
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private CharBuffer window;
+    private long discarded;
+    private boolean decoded;
+    // Start of a token that must stay in the window while it is read, or -1
+    private int mark = -1;
+
+    public JsonReader(CharSequence in) {
+        this.in = in;
+        this.bytes = null;
+        this.decoder = null;
+    }
+
+    public JsonReader(ByteBuffer utf8) {
+        this.bytes = utf8;
+        // Malformed input becomes U+FFFD, as with Charset.decode
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.window = CharBuffer.allocate(WINDOW_CHARS).flip();
+        this.in = window;
+    }
+
+    /** Type of the next value, name or bracket, without consuming it. */
+    public Token peek() {
+        if (!beforeToken()) {
+            return Token.END_DOCUMENT;
+        }
+        char c = in.charAt(pos);
+        Token token;
+        switch (c) {
+            case '{': token = Token.BEGIN_OBJECT; break;
+            case '}': token = Token.END_OBJECT; break;
+            case '[': token = Token.BEGIN_ARRAY; break;
+            case ']': token = Token.END_ARRAY; break;
+            case '"': token = Token.STRING; break;
+            case 't': case 'f': token = Token.BOOLEAN; break;
+            case 'n': token = Token.NULL; break;
+            default:
+                if (c != '-' && (c < '0' || c > '9')) {
+                    throw syntaxError("Unexpected character '" + c + "'");
+                }
+                token = Token.NUMBER;
+        }
+        switch (scopes[depth]) {
+            case NONEMPTY_DOCUMENT:
+                throw syntaxError("Unexpected data after the top-level value");
+            case EMPTY_OBJECT:
+                if (token != Token.STRING && token != Token.END_OBJECT) {
+                    throw syntaxError("Expected a name");
+                }
+                break;
+            case OBJECT_NEXT:
+                if (token != Token.STRING) {
+                    throw syntaxError("Expected a name");
+                }
+                break;
+            case EMPTY_ARRAY:
+                if (token == Token.END_OBJECT) {
+                    throw syntaxError("Expected a value or ']'");
+                }
+                break;
+            case EMPTY_DOCUMENT:
+            case ARRAY_NEXT:
+            case DANGLING_NAME:
+                if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+                    throw syntaxError("Expected a value");
+                }
+                break;
+            default:
+                // NONEMPTY_ARRAY and NONEMPTY_OBJECT: beforeToken let only the closing bracket through
+        }
+        return token;
+    }
+
+    public void beginObject() {
+        expect(Token.BEGIN_OBJECT, "Expected '{'");
+        pos++;
+        valueRead();
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() {
+        expect(Token.END_OBJECT, "Expected '}'");
+        pos++;
+        depth--;
+    }
+
+    public void beginArray() {
+        expect(Token.BEGIN_ARRAY, "Expected '['");
+        pos++;
+        valueRead();
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() {
+        expect(Token.END_ARRAY, "Expected ']'");
+        pos++;
+        depth--;
+    }
+
+    /** True while the current object or array has more members. */
+    public boolean hasNext() {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() {
+        if (peek() != Token.STRING || !atName()) {
+            throw syntaxError("Expected a name");
+        }
+        String name = readString();
+        readColon();
+        return name;
+    }
+
+    public String nextString() {
+        if (peek() != Token.STRING || atName()) {
+            throw syntaxError("Expected a string");
+        }
+        String value = readString();
+        valueRead();
+        return value;
+    }
+
+    public long nextLong() {
+        CharSequence number = readNumber();
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E') {
+                return (long) Double.parseDouble(number.toString());
+            }
+        }
+        try {
+            return Long.parseLong(number, 0, number.length(), 10);
+        } catch (NumberFormatException ex) {
+            throw syntaxError("Number out of range");
+        }
+    }
+
+    public double nextDouble() {
+        return Double.parseDouble(readNumber().toString());
+    }
+
+    public boolean nextBoolean() {
+        expect(Token.BOOLEAN, "Expected boolean");
+        boolean value;
+        if (matchLiteral("true")) {
+            value = true;
+        } else if (matchLiteral("false")) {
+            value = false;
+        } else {
+            throw syntaxError("Expected boolean");
+        }
+        valueRead();
+        return value;
+    }
+
+    public void nextNull() {
+        expect(Token.NULL, "Expected null");
+        if (!matchLiteral("null")) {
+            throw syntaxError("Expected null");
+        }
+        valueRead();
+    }
+
+    /** Reads a string, number or boolean as text; null for a JSON null. */
+    public String nextScalarAsString() {
+        switch (peek()) {
+            case STRING: return nextString();
+            case NUMBER: return readNumber().toString();
+            case BOOLEAN: return Boolean.toString(nextBoolean());
+            case NULL: nextNull(); return null;
+            default: throw syntaxError("Expected a scalar value");
+        }
+    }
+
+    /** Skips the next value, including any nested objects and arrays. */
+    public void skipValue() {
+        Token token = peek();
+        if (token == Token.END_OBJECT || token == Token.END_ARRAY || token == Token.END_DOCUMENT || atName()) {
+            throw syntaxError("Expected a value");
+        }
+        int start = depth;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    break;
+                case STRING:
+                    boolean name = atName();
+                    skipString();
+                    if (name) {
+                        readColon();
+                    } else {
+                        valueRead();
+                    }
+                    break;
+                case NUMBER:
+                    readNumber();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of input");
+            }
+        } while (depth > start);
+    }
+
+    // Reads the string at pos, which peek() has checked starts with '"'
+    private String readString() {
+        int start = ++pos;
+        // Fast path: no escapes and the whole string in the window, one copy
+        while (pos < in.length()) {
+            char c = in.charAt(pos);
+            if (c == '"') {
+                return in.subSequence(start, pos++).toString();
+            }
+            if (c == '\\') {
+                break;
+            }
+            if (c < 0x20) {
+                throw syntaxError("Unescaped control character in string");
+            }
+            pos++;
+        }
+        scratch.setLength(0);
+        scratch.append(in, start, pos);
+        while (available(1)) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c == '\\') {
+                scratch.append(readEscape());
+            } else if (c < 0x20) {
+                pos--;
+                throw syntaxError("Unescaped control character in string");
+            } else {
+                scratch.append(c);
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipString() {
+        pos++;
+        while (available(1)) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscape();
+            } else if (c < 0x20) {
+                pos--;
+                throw syntaxError("Unescaped control character in string");
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    // The char an escape stands for, with pos just past its backslash
+    private char readEscape() {
+        if (!available(1)) {
+            throw syntaxError("Unterminated string");
+        }
+        char escaped = in.charAt(pos++);
+        switch (escaped) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                // Surrogate pairs arrive as two \\u escapes and are appended as two chars
+                return (char) readHex4();
+            default:
+                throw syntaxError("Invalid escape '\\" + escaped + "'");
+        }
+    }
+
+    // For byte input the result is a view of the window, valid until the next read
+    private CharSequence readNumber() {
+        expect(Token.NUMBER, "Expected number");
+        mark = pos;
+        while (available(1)) {
+            char c = in.charAt(pos);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        int start = mark;
+        mark = -1;
+        CharSequence number = in.subSequence(start, pos);
+        if (!isNumber(number)) {
+            pos = start;
+            throw syntaxError("Malformed number '" + number + "'");
+        }
+        valueRead();
+        return number;
+    }
+
+    // JSON's number format: -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?
+    private static boolean isNumber(CharSequence s) {
+        int n = s.length();
+        int i = 0;
+        if (i < n && s.charAt(i) == '-') {
+            i++;
+        }
+        if (i < n && s.charAt(i) == '0') {
+            i++;
+        } else {
+            int end = digits(s, i);
+            if (end == i) {
+                return false;
+            }
+            i = end;
+        }
+        if (i < n && s.charAt(i) == '.') {
+            int end = digits(s, i + 1);
+            if (end == i + 1) {
+                return false;
+            }
+            i = end;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                i++;
+            }
+            int end = digits(s, i);
+            if (end == i) {
+                return false;
+            }
+            i = end;
+        }
+        return i == n;
+    }
+
+    private static int digits(CharSequence s, int from) {
+        while (from < s.length() && s.charAt(from) >= '0' && s.charAt(from) <= '9') {
+            from++;
+        }
+        return from;
+    }
+
+    private int readHex4() {
+        if (!available(4)) {
+            throw syntaxError("Truncated \\u escape");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(in.charAt(pos++), 16);
+            if (digit < 0) {
+                throw syntaxError("Invalid \\u escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private boolean matchLiteral(String literal) {
+        if (!available(literal.length())) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (in.charAt(pos + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        pos += literal.length();
+        return true;
+    }
+
+    private void expect(Token token, String message) {
+        if (peek() != token) {
+            throw syntaxError(message);
+        }
+    }
+
+    private void readColon() {
+        skipWhitespace();
+        if (!available(1) || in.charAt(pos) != ':') {
+            throw syntaxError("Expected ':'");
+        }
+        pos++;
+        scopes[depth] = DANGLING_NAME;
+    }
+
+    // True where the next string is a member name rather than a value
+    private boolean atName() {
+        return scopes[depth] == EMPTY_OBJECT || scopes[depth] == OBJECT_NEXT;
+    }
+
+    // A value (or the opening bracket of one) has been consumed in the current scope
+    private void valueRead() {
+        switch (scopes[depth]) {
+            case EMPTY_DOCUMENT: scopes[depth] = NONEMPTY_DOCUMENT; break;
+            case DANGLING_NAME: scopes[depth] = NONEMPTY_OBJECT; break;
+            default: scopes[depth] = NONEMPTY_ARRAY; break;
+        }
+    }
+
+    private void push(int scope) {
+        if (++depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, depth * 2);
+        }
+        scopes[depth] = scope;
+    }
+
+    // Moves pos to the next token, past the comma that separates members; false at the end of the input
+    private boolean beforeToken() {
+        skipWhitespace();
+        if (!available(1)) {
+            return false;
+        }
+        int scope = scopes[depth];
+        if (scope == NONEMPTY_ARRAY || scope == NONEMPTY_OBJECT) {
+            char close = scope == NONEMPTY_ARRAY ? ']' : '}';
+            char c = in.charAt(pos);
+            if (c == ',') {
+                pos++;
+                scopes[depth] = scope == NONEMPTY_ARRAY ? ARRAY_NEXT : OBJECT_NEXT;
+                skipWhitespace();
+                return available(1);
+            }
+            if (c != close) {
+                throw syntaxError("Expected ',' or '" + close + "'");
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (available(1)) {
+            char c = in.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    // True if `count` chars from pos are in the input, decoding more bytes into the window if needed
+    private boolean available(int count) {
+        return pos + count <= in.length() || decodeMore(count);
+    }
+
+    private boolean decodeMore(int count) {
+        if (decoder == null || decoded) {
+            return false;
+        }
+        // Slide out what has been read, keeping a marked token
+        int keep = mark >= 0 ? mark : pos;
+        window.position(keep);
+        window.compact();
+        discarded += keep;
+        pos -= keep;
+        if (mark >= 0) {
+            mark -= keep;
+        }
+        while (window.position() < pos + count && !decoded) {
+            if (!window.hasRemaining()) {
+                window = CharBuffer.allocate(window.capacity() * 2).put(window.flip());
+            }
+            CoderResult result = decoder.decode(bytes, window, true);
+            if (result.isUnderflow()) {
+                decoder.flush(window);
+                decoded = true;
+            }
+        }
+        window.flip();
+        in = window;
+        return pos + count <= in.length();
+    }
+
+    private IllegalStateException syntaxError(String message) {
+        return new IllegalStateException(message + " at position " + (discarded + pos));
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Minimal streaming JSON writer.
+ * Appends tokens directly to a caller-supplied StringBuilder and escapes strings in a single pass,
+ * so a request body is built without intermediate copies of the (possibly large) prompt.
+ * Commas are inserted automatically; nesting is tracked in a bit stack (up to 64 levels).
+ */
+public final class JsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Buffers above this size are not kept for reuse, so one huge request doesn't pin memory
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+    private final StringBuilder out;
+    private long hasMembers; // bit per nesting level: a value was already written at that level
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    /** Writer over this thread's reusable buffer, cleared. Call {@link #finish()} to take the result. */
+    public static JsonWriter reusable() {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        return new JsonWriter(buffer);
+    }
+
+    /** Returns the written text and releases an oversized reusable buffer. */
+    public String finish() {
+        String json = out.toString();
+        if (out == BUFFER.get() && out.capacity() > MAX_RETAINED_CAPACITY) {
+            BUFFER.remove();
+        }
+        return json;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        out.append('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        out.append('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        out.append('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        out.append(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        beforeValue();
+        writeString(name, out);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(CharSequence value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value, out);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        out.append("null");
+        return this;
+    }
+
+    private void push() {
+        depth++;
+        hasMembers &= ~(1L << depth);
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        long bit = 1L << depth;
+        if ((hasMembers & bit) != 0) {
+            out.append(',');
+        }
+        hasMembers |= bit;
+    }
+
+    /** Appends value as a quoted JSON string, escaping quotes, backslashes and all control characters. */
+    public static void writeString(CharSequence value, StringBuilder out) {
+        out.append('"');
+        int length = value.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            // Copy the unescaped run in one call, then the escape
+            out.append(value, runStart, i);
+            runStart = i + 1;
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        out.append(value, runStart, length);
+        out.append('"');
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Map-reduce analysis for inputs too large for one prompt.
+ * The code is split with {@link CodeChunker}, at most `parallelism` chunk requests are in flight at
+ * once (a new one starts as each finishes), every finished chunk is reported to the listener, and the
+ * partial reports are merged at the end: by the model for report-style analyses, by concatenation in
+ * line order for analyses that return rewritten code. A model merge that does not fit the model's
+ * context budget (see PromptCompactor#budget) runs in rounds over groups of consecutive reports.
+ * Parts whose request came back as an error page are left out, and the result names their lines.
+ *
+ * Settings (system properties):
+ *   devpilot.chunk.tokens        token budget per chunk, also the size above which a file is split (default 6000)
+ *   devpilot.chunk.parallelism   chunk requests in flight at once (default 4)
+ */
+public final class LargeFileAnalyzer {
+
+    static final int CHUNK_TOKENS = Integer.getInteger("devpilot.chunk.tokens", 6000);
+    static final int PARALLELISM = Integer.getInteger("devpilot.chunk.parallelism", 4);
+    // Tokens for the "--- Report for lines a-b ---" line ahead of each report in a reduce prompt
+    private static final int REPORT_LABEL_TOKENS = 16;
+
+    /** Receives each chunk's result as soon as it arrives, in completion order. */
+    public interface Listener {
+        void chunkDone(CodeChunker.Chunk chunk, int chunks, String result);
+    }
+
+    private LargeFileAnalyzer() {
+    }
+
+    public static boolean needsSplitting(CharSequence code) {
+        return PromptCompactor.estimateTokens(code) > CHUNK_TOKENS;
+    }
+
+    /**
+     * Runs the map and reduce steps. Cancelling the returned future stops launching chunk and merge
+     * requests and cancels the ones still in flight, in whichever step they are.
+     */
+    public static CompletableFuture<String> analyze(String code, String analysisType, String model, int parallelism, Listener listener) {
+        List<CodeChunker.Chunk> chunks = CodeChunker.split(code, CHUNK_TOKENS);
+        int count = chunks.size();
+        List<CompletableFuture<String>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(new CompletableFuture<>());
+        }
+        AtomicInteger next = new AtomicInteger();
+        Requests requests = new Requests();
+        CompletableFuture<String> merged = requests.outcome;
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(v -> {
+                    List<String> partials = new ArrayList<>(count);
+                    for (CompletableFuture<String> result : results) {
+                        partials.add(result.join());
+                    }
+                    return reduce(partials, chunks, analysisType, model, requests);
+                })
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        merged.completeExceptionally(ex);
+                    } else {
+                        merged.complete(result);
+                    }
+                });
+
+        Runnable launch = new Runnable() {
+            @Override
+            public void run() {
+                int i = next.getAndIncrement();
+                if (i >= count || merged.isDone()) {
+                    return;
+                }
+                CodeChunker.Chunk chunk = chunks.get(i);
+                CompletableFuture<String> request = requests.send(AnalysisPipeline.buildChunkPrompt(chunk, count, analysisType), analysisType, model);
+                request.whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        results.get(i).completeExceptionally(ex);
+                        merged.completeExceptionally(ex);
+                        return;
+                    }
+                    listener.chunkDone(chunk, count, result);
+                    results.get(i).complete(result);
+                    run();
+                });
+            }
+        };
+        for (int i = 0; i < Math.min(parallelism, count); i++) {
+            launch.run();
+        }
+
+        merged.whenComplete((result, ex) -> {
+            if (ex != null) {
+                next.set(count);
+                requests.inFlight.forEach(request -> request.cancel(true));
+            }
+        });
+        return merged;
+    }
+
+    // Requests of one analysis, map and reduce alike, so that ending the analysis cancels whichever are still running
+    private static final class Requests {
+        final Queue<CompletableFuture<String>> inFlight = new ConcurrentLinkedQueue<>();
+        // The analysis's result; once it is done, cancelled or failed, no new request is sent
+        final CompletableFuture<String> outcome = new CompletableFuture<>();
+
+        CompletableFuture<String> send(CharSequence prompt, String analysisType, String model) {
+            if (outcome.isDone()) {
+                return CompletableFuture.failedFuture(new CancellationException("Analysis already finished"));
+            }
+            CompletableFuture<String> request = AnalysisPipeline.completeAsync(prompt, analysisType, model);
+            inFlight.add(request);
+            request.whenComplete((result, ex) -> inFlight.remove(request));
+            // Ended between the check above and the add, so the cancel pass may have missed this one
+            if (outcome.isDone()) {
+                request.cancel(true);
+            }
+            return request;
+        }
+    }
+
+    // A part's report and the lines of the file it covers
+    private static final class Part {
+        final int firstLine;
+        final int lastLine;
+        final String report;
+
+        Part(int firstLine, int lastLine, String report) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.report = report;
+        }
+
+        String range() {
+            return firstLine + "-" + lastLine;
+        }
+    }
+
+    private static CompletableFuture<String> reduce(List<String> partials, List<CodeChunker.Chunk> chunks, String analysisType, String model, Requests requests) {
+        // A part whose request came back as an error page has nothing to merge; the result says which lines are missing
+        List<Part> parts = new ArrayList<>();
+        StringBuilder missing = new StringBuilder();
+        for (int i = 0; i < partials.size(); i++) {
+            CodeChunker.Chunk chunk = chunks.get(i);
+            if (AnalysisPipeline.isErrorPage(partials.get(i))) {
+                missing.append(missing.length() == 0 ? "" : ", ").append(chunk.firstLine).append('-').append(chunk.lastLine);
+            } else {
+                parts.add(new Part(chunk.firstLine, chunk.lastLine, partials.get(i)));
+            }
+        }
+        if (parts.isEmpty()) {
+            return CompletableFuture.completedFuture(partials.get(0));
+        }
+        String note = missing.length() == 0 ? "" : "<p><b>Note:</b> lines " + missing + " could not be analyzed.</p>";
+        if (parts.size() == 1) {
+            return CompletableFuture.completedFuture(note + parts.get(0).report);
+        }
+        if (AnalysisPipeline.reducesWithModel(analysisType)) {
+            int budget = PromptCompactor.budget(model)
+                    - PromptCompactor.estimateTokens(AnalysisPipeline.buildReducePrompt(List.of(), List.of(), analysisType));
+            return mergeRounds(parts, analysisType, model, budget, requests)
+                    .thenApply(merged -> AnalysisPipeline.isErrorPage(merged) ? merged : note + merged);
+        }
+        StringBuilder report = new StringBuilder(note);
+        for (Part part : parts) {
+            report.append("<h3>Lines ").append(part.range()).append("</h3>").append(part.report);
+        }
+        return CompletableFuture.completedFuture(report.toString());
+    }
+
+    /**
+     * One reduce round: consecutive reports are packed into prompts of at most `budget` tokens, the
+     * groups are merged at once, and the round repeats on the merged reports until one is left.
+     */
+    private static CompletableFuture<String> mergeRounds(List<Part> parts, String analysisType, String model, int budget, Requests requests) {
+        if (parts.size() == 1) {
+            return CompletableFuture.completedFuture(parts.get(0).report);
+        }
+        if (requests.outcome.isDone()) {
+            return CompletableFuture.failedFuture(new CancellationException("Analysis already finished"));
+        }
+        // Cut so that any two reports fit in one prompt; groups then take at least two, so every round shrinks the list
+        int perReport = Math.max(1, budget / 2 - REPORT_LABEL_TOKENS);
+        List<Part> capped = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            capped.add(new Part(part.firstLine, part.lastLine, cut(part.report, perReport)));
+        }
+        parts = capped;
+        List<CompletableFuture<Part>> merges = new ArrayList<>();
+        int from = 0;
+        while (from < parts.size()) {
+            int to = from;
+            int tokens = 0;
+            while (to < parts.size()) {
+                int next = PromptCompactor.estimateTokens(parts.get(to).report) + REPORT_LABEL_TOKENS;
+                if (to - from >= 2 && tokens + next > budget) {
+                    break;
+                }
+                tokens += next;
+                to++;
+            }
+            merges.add(merge(parts.subList(from, to), analysisType, model, requests));
+            from = to;
+        }
+        return CompletableFuture.allOf(merges.toArray(new CompletableFuture<?>[0])).thenCompose(v -> {
+            List<Part> merged = new ArrayList<>(merges.size());
+            for (CompletableFuture<Part> merge : merges) {
+                Part part = merge.join();
+                if (AnalysisPipeline.isErrorPage(part.report)) {
+                    return CompletableFuture.completedFuture(part.report);
+                }
+                merged.add(part);
+            }
+            return mergeRounds(merged, analysisType, model, budget, requests);
+        });
+    }
+
+    private static CompletableFuture<Part> merge(List<Part> group, String analysisType, String model, Requests requests) {
+        Part first = group.get(0);
+        Part last = group.get(group.size() - 1);
+        if (group.size() == 1) {
+            return CompletableFuture.completedFuture(first);
+        }
+        List<String> reports = new ArrayList<>(group.size());
+        List<String> ranges = new ArrayList<>(group.size());
+        for (Part part : group) {
+            reports.add(part.report);
+            ranges.add(part.range());
+        }
+        return requests.send(AnalysisPipeline.buildReducePrompt(reports, ranges, analysisType), analysisType, model)
+                .thenApply(report -> new Part(first.firstLine, last.lastLine, report));
+    }
+
+    // The report cut to about `maxTokens`, for one too long to share a reduce prompt
+    private static String cut(String report, int maxTokens) {
+        int tokens = PromptCompactor.estimateTokens(report);
+        if (tokens <= maxTokens) {
+            return report;
+        }
+        return report.substring(0, (int) ((long) report.length() * maxTokens / tokens)) + "\n[report cut to fit]";
+    }
+}
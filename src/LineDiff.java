@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line diff between two versions of a file, rendered as a unified diff.
+ *
+ * Lines shared at the start and end are skipped first, so a small edit to a large file costs one
+ * linear pass plus a diff of the edited region. The region is diffed with Myers' O(ND) algorithm,
+ * which gives up once more than `maxEdits` lines would have to be added or removed.
+ */
+public final class LineDiff {
+
+    /** Lines [oldFrom, oldTo) of the old file were replaced by lines [newFrom, newTo) of the new one (0-based). */
+    public static final class Change {
+        final int oldFrom;
+        final int oldTo;
+        final int newFrom;
+        final int newTo;
+
+        Change(int oldFrom, int oldTo, int newFrom, int newTo) {
+            this.oldFrom = oldFrom;
+            this.oldTo = oldTo;
+            this.newFrom = newFrom;
+            this.newTo = newTo;
+        }
+    }
+
+    private LineDiff() {
+    }
+
+    /** The text's lines, split at '\n' like split("\n", -1), read straight from the CharSequence. */
+    public static String[] lines(CharSequence text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.subSequence(start, i).toString());
+                start = i + 1;
+            }
+        }
+        lines.add(text.subSequence(start, text.length()).toString());
+        return lines.toArray(new String[0]);
+    }
+
+    /** The changes in file order, or null if there are more than maxEdits added plus removed lines. */
+    public static List<Change> diff(String[] a, String[] b, int maxEdits) {
+        int prefix = 0;
+        while (prefix < a.length && prefix < b.length && a[prefix].equals(b[prefix])) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < a.length - prefix && suffix < b.length - prefix
+                && a[a.length - 1 - suffix].equals(b[b.length - 1 - suffix])) {
+            suffix++;
+        }
+        int n = a.length - prefix - suffix;
+        int m = b.length - prefix - suffix;
+        // Every line one side has over the other is an edit
+        if (Math.abs(n - m) > maxEdits) {
+            return null;
+        }
+        boolean[] removed = new boolean[n];
+        boolean[] added = new boolean[m];
+        if (!myers(a, b, prefix, n, m, Math.min(n + m, maxEdits), removed, added)) {
+            return null;
+        }
+
+        // Runs of removed and added lines between two matching lines form one change
+        List<Change> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if ((i < n && removed[i]) || (j < m && added[j])) {
+                int oldFrom = i;
+                int newFrom = j;
+                while (i < n && removed[i]) {
+                    i++;
+                }
+                while (j < m && added[j]) {
+                    j++;
+                }
+                changes.add(new Change(prefix + oldFrom, prefix + i, prefix + newFrom, prefix + j));
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return changes;
+    }
+
+    // DSA: Myers' greedy diff. v[k] is the furthest x reached on diagonal k = x - y with d edits;
+    // one copy of v per d is kept so the path can be walked back to mark the removed and added lines
+    private static boolean myers(String[] a, String[] b, int base, int n, int m, int max,
+                                 boolean[] removed, boolean[] added) {
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            // Diagonals -d..d of the previous round, indexed k + d
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[base + x].equals(b[base + y])) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    backtrack(trace, d, k, removed, added);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void backtrack(List<int[]> trace, int d, int k, boolean[] removed, boolean[] added) {
+        for (; d > 0; d--) {
+            int[] previous = trace.get(d);
+            boolean down = k == -d || (k != d && previous[k - 1 + d] < previous[k + 1 + d]);
+            int previousK = down ? k + 1 : k - 1;
+            int previousX = previous[previousK + d];
+            int previousY = previousX - previousK;
+            if (down) {
+                added[previousY] = true;
+            } else {
+                removed[previousX] = true;
+            }
+            k = previousK;
+        }
+    }
+
+    /**
+     * Unified diff of the changes with `context` unchanged lines around each; changes closer than
+     * twice that share a hunk. Each hunk header ends with the nearest line above it that starts a
+     * declaration (one starting with a letter, '_' or '$', as in git), so the model knows where it is.
+     */
+    public static String unified(String[] a, String[] b, List<Change> changes, int context) {
+        StringBuilder out = new StringBuilder();
+        int c = 0;
+        while (c < changes.size()) {
+            int last = c;
+            while (last + 1 < changes.size() && changes.get(last + 1).oldFrom - changes.get(last).oldTo <= 2 * context) {
+                last++;
+            }
+            Change first = changes.get(c);
+            Change end = changes.get(last);
+            int oldFrom = Math.max(0, first.oldFrom - context);
+            int newFrom = first.newFrom - (first.oldFrom - oldFrom);
+            int oldTo = Math.min(a.length, end.oldTo + context);
+            int newTo = end.newTo + (oldTo - end.oldTo);
+
+            out.append("@@ -").append(oldFrom + 1).append(',').append(oldTo - oldFrom)
+                    .append(" +").append(newFrom + 1).append(',').append(newTo - newFrom).append(" @@");
+            String heading = declarationAbove(b, newFrom);
+            if (heading != null) {
+                out.append(' ').append(heading);
+            }
+            out.append('\n');
+
+            int i = oldFrom;
+            for (int h = c; h <= last; h++) {
+                Change change = changes.get(h);
+                for (; i < change.oldFrom; i++) {
+                    out.append(' ').append(a[i]).append('\n');
+                }
+                for (int r = change.oldFrom; r < change.oldTo; r++) {
+                    out.append('-').append(a[r]).append('\n');
+                }
+                for (int s = change.newFrom; s < change.newTo; s++) {
+                    out.append('+').append(b[s]).append('\n');
+                }
+                i = change.oldTo;
+            }
+            for (; i < oldTo; i++) {
+                out.append(' ').append(a[i]).append('\n');
+            }
+            c = last + 1;
+        }
+        return out.toString();
+    }
+
+    /** Lines added plus lines removed. */
+    public static int editedLines(List<Change> changes) {
+        int edited = 0;
+        for (Change change : changes) {
+            edited += change.oldTo - change.oldFrom + change.newTo - change.newFrom;
+        }
+        return edited;
+    }
+
+    private static String declarationAbove(String[] lines, int before) {
+        for (int i = before - 1; i >= 0; i--) {
+            String line = lines[i];
+            if (!line.isEmpty() && (Character.isLetter(line.charAt(0)) || line.charAt(0) == '_' || line.charAt(0) == '$')) {
+                String heading = line.strip();
+                return heading.length() > 80 ? heading.substring(0, 80) : heading;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * LRU cache bounded by an estimate of the heap its values take, and optionally by entry count.
+ *
+ * Each value is weighed once, when it is put; after every put the least recently used entries are
+ * evicted until the cache is back under both limits. A value heavier than the cache's byte limit
+ * is not cached at all. Every cache also charges its bytes to the {@link MemoryBudget#global global
+ * budget}, which may evict its entries to make room for another cache's. Thread-safe; every
+ * operation holds the cache's lock, and eviction listeners run after it is released.
+ */
+public final class MemoryBoundedCache<K, V> implements MemoryBudget.Holder {
+
+    private final long maxBytes;
+    private final int maxEntries;
+    private final ToLongFunction<V> weigher;
+    private final BiConsumer<? super K, ? super V> evicted;
+    private final MemoryBudget budget = MemoryBudget.global();
+    // DSA: LinkedHashMap in access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<K, Weighed<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private static final class Weighed<V> {
+        final V value;
+        final long bytes;
+        // Budget clock at the last put or get, for eviction across caches
+        long used;
+
+        Weighed(V value, long bytes, long used) {
+            this.value = value;
+            this.bytes = bytes;
+            this.used = used;
+        }
+    }
+
+    public MemoryBoundedCache(long maxBytes, int maxEntries, ToLongFunction<V> weigher) {
+        this(maxBytes, maxEntries, weigher, (key, value) -> { });
+    }
+
+    /** A cache that tells `evicted` about every entry it drops to stay within a limit. */
+    public MemoryBoundedCache(long maxBytes, int maxEntries, ToLongFunction<V> weigher, BiConsumer<? super K, ? super V> evicted) {
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.weigher = weigher;
+        this.evicted = evicted;
+        budget.register(this);
+    }
+
+    /** Heap estimate for a string: two bytes per char, which over-counts compact (Latin-1) strings. */
+    public static long stringBytes(String value) {
+        return 2L * value.length();
+    }
+
+    public synchronized V get(K key) {
+        Weighed<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.used = budget.tick();
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        // Weighed before taking the lock: a weigher may walk the whole value
+        long weight = weigher.applyAsLong(value);
+        List<Map.Entry<K, V>> dropped = new ArrayList<>();
+        synchronized (this) {
+            Weighed<V> previous = weight > maxBytes ? entries.remove(key) : entries.put(key, new Weighed<>(value, weight, budget.tick()));
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+            if (weight > maxBytes) {
+                return;
+            }
+            bytes += weight;
+            Iterator<Map.Entry<K, Weighed<V>>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes || entries.size() > maxEntries) {
+                Map.Entry<K, Weighed<V>> entry = eldest.next();
+                bytes -= entry.getValue().bytes;
+                dropped.add(Map.entry(entry.getKey(), entry.getValue().value));
+                eldest.remove();
+            }
+        }
+        dropped.forEach(entry -> evicted.accept(entry.getKey(), entry.getValue()));
+        budget.trim();
+    }
+
+    /** Estimated bytes held. */
+    @Override
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Budget clock of the least recently used entry, or Long.MAX_VALUE when empty
+    synchronized long eldestTick() {
+        return entries.isEmpty() ? Long.MAX_VALUE : entries.values().iterator().next().used;
+    }
+
+    // Drops the least recently used entry for the budget; returns the bytes freed
+    long evictEldest() {
+        Map.Entry<K, Weighed<V>> eldest;
+        synchronized (this) {
+            Iterator<Map.Entry<K, Weighed<V>>> it = entries.entrySet().iterator();
+            if (!it.hasNext()) {
+                return 0;
+            }
+            eldest = it.next();
+            it.remove();
+            bytes -= eldest.getValue().bytes;
+        }
+        evicted.accept(eldest.getKey(), eldest.getValue().value);
+        return eldest.getValue().bytes;
+    }
+}
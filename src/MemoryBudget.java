@@ -0,0 +1,98 @@
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One heap limit for everything the app keeps in memory on the side: the {@link MemoryBoundedCache}s
+ * (history bodies, cached responses, parsed documents) and the search index's postings.
+ *
+ * Holders register once and report their own estimate through {@link Holder#bytes}. Whenever one
+ * grows it calls {@link #trim}, which evicts the least recently used cache entry across all caches
+ * until the total is back under the limit. Holders that are not caches (the search index) cannot
+ * give memory back; their bytes just leave less room for the caches. Holders are held weakly, so a
+ * store or index that is dropped stops counting once it is collected.
+ *
+ * Lock order: the budget's lock, then a holder's. Holders must not call {@link #trim} while holding
+ * their own lock.
+ *
+ * Settings (system properties):
+ *   devpilot.memory.maxBytes   heap the caches and the search index may take together (default a quarter of the max heap)
+ */
+public final class MemoryBudget {
+
+    /** Something whose heap is charged to the budget. */
+    public interface Holder {
+        /** Estimated bytes held; called with the budget's lock held, so it must not call back into the budget. */
+        long bytes();
+    }
+
+    private static final MemoryBudget GLOBAL =
+            new MemoryBudget(Long.getLong("devpilot.memory.maxBytes", Runtime.getRuntime().maxMemory() / 4));
+
+    private final long maxBytes;
+    // Stamps entry accesses, so entries of different caches can be ordered by recency
+    private final AtomicLong clock = new AtomicLong();
+    // Guarded by this
+    private final List<WeakReference<Holder>> holders = new ArrayList<>();
+
+    private MemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** The budget every cache and index in the app shares. */
+    public static MemoryBudget global() {
+        return GLOBAL;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /** Bytes currently charged by every live holder. */
+    public synchronized long bytes() {
+        long total = 0;
+        for (Iterator<WeakReference<Holder>> it = holders.iterator(); it.hasNext(); ) {
+            Holder holder = it.next().get();
+            if (holder == null) {
+                it.remove();
+            } else {
+                total += holder.bytes();
+            }
+        }
+        return total;
+    }
+
+    public synchronized void register(Holder holder) {
+        holders.add(new WeakReference<>(holder));
+    }
+
+    long tick() {
+        return clock.incrementAndGet();
+    }
+
+    /** Evicts least recently used cache entries, from whichever cache holds them, until the total fits. */
+    public synchronized void trim() {
+        long total = bytes();
+        while (total > maxBytes) {
+            // DSA: each cache is in access order, so the oldest entry overall is the oldest of the caches' eldest
+            MemoryBoundedCache<?, ?> oldest = null;
+            long oldestTick = Long.MAX_VALUE;
+            for (WeakReference<Holder> ref : holders) {
+                if (ref.get() instanceof MemoryBoundedCache<?, ?> cache) {
+                    long tick = cache.eldestTick();
+                    if (tick < oldestTick) {
+                        oldestTick = tick;
+                        oldest = cache;
+                    }
+                }
+            }
+            if (oldest == null) {
+                // Only non-evictable holders are left
+                return;
+            }
+            total -= oldest.evictEldest();
+        }
+    }
+}
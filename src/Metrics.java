@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage timings and token counts of the request path, kept in lock-free histograms per model and
+ * per analysis type (plus an "all" row per stage) for the stats dialog and JSON/CSV export.
+ *
+ * Times are recorded in nanoseconds and stored in microseconds; token counts are stored as-is.
+ * java.net.http does not expose connection setup separately, so the connect share of a request shows
+ * up in "First byte" (measured from the moment the scheduler sends it, after "Queue").
+ */
+public final class Metrics {
+
+    public enum Stage {
+        PROMPT_BUILD("Prompt build", true),
+        SERIALIZE("Serialize", true),
+        QUEUE("Queue", true),
+        FIRST_BYTE("First byte", true),
+        TOTAL("Total", true),
+        PARSE("Parse", true),
+        RENDER("Render", true),
+        FIRST_FRAME("First frame", true),
+        PROMPT_TOKENS("Prompt tokens", false),
+        COMPLETION_TOKENS("Completion tokens", false);
+
+        final String label;
+        final boolean timed;
+
+        Stage(String label, boolean timed) {
+            this.label = label;
+            this.timed = timed;
+        }
+    }
+
+    /** One histogram's summary, values in the stage's unit (microseconds or tokens). */
+    public static final class Row {
+        public final Stage stage;
+        public final String dimension;
+        public final String name;
+        public final long count;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long max;
+        public final long mean;
+
+        Row(Stage stage, String dimension, String name, Histogram histogram) {
+            this.stage = stage;
+            this.dimension = dimension;
+            this.name = name;
+            this.count = histogram.count();
+            this.p50 = histogram.percentile(0.50);
+            this.p95 = histogram.percentile(0.95);
+            this.p99 = histogram.percentile(0.99);
+            this.max = histogram.max.get();
+            this.mean = count == 0 ? 0 : histogram.sum.sum() / count;
+        }
+
+        public String unit() {
+            return stage.timed ? "us" : "tokens";
+        }
+    }
+
+    private record Key(Stage stage, String dimension, String name) {
+    }
+
+    private static final Map<Key, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Records one sample under the model, the analysis type and the stage total. Either label may be
+     * null when the stage does not depend on it. Timed stages take nanoseconds; negative values are dropped.
+     */
+    public static void record(Stage stage, String model, String analysisType, long value) {
+        if (value < 0) {
+            return;
+        }
+        long stored = stage.timed ? TimeUnit.NANOSECONDS.toMicros(value) : value;
+        histogram(stage, "all", "all").add(stored);
+        if (model != null) {
+            histogram(stage, "model", model).add(stored);
+        }
+        if (analysisType != null) {
+            histogram(stage, "type", analysisType).add(stored);
+        }
+    }
+
+    /** Records the usage block of a parsed completion, if the API sent one. */
+    public static void recordUsage(ChatCompletion completion, String model, String analysisType) {
+        record(Stage.PROMPT_TOKENS, model, analysisType, completion.promptTokens);
+        record(Stage.COMPLETION_TOKENS, model, analysisType, completion.completionTokens);
+    }
+
+    private static Histogram histogram(Stage stage, String dimension, String name) {
+        Key key = new Key(stage, dimension, name);
+        Histogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, k -> new Histogram());
+    }
+
+    /** Summary of one histogram, or null if nothing was recorded under it. */
+    public static Row row(Stage stage, String dimension, String name) {
+        Histogram histogram = histograms.get(new Key(stage, dimension, name));
+        return histogram == null ? null : new Row(stage, dimension, name, histogram);
+    }
+
+    /** Summaries of every histogram, by stage, then "all", "model", "type", then name. */
+    public static List<Row> snapshot() {
+        List<Row> rows = new ArrayList<>();
+        histograms.forEach((key, histogram) -> rows.add(new Row(key.stage, key.dimension, key.name, histogram)));
+        rows.sort(Comparator.<Row, Stage>comparing(row -> row.stage)
+                .thenComparing(row -> row.dimension)
+                .thenComparing(row -> row.name));
+        return rows;
+    }
+
+    public static String toJson(List<Row> rows) {
+        JsonWriter json = new JsonWriter(new StringBuilder());
+        json.beginArray();
+        for (Row row : rows) {
+            json.beginObject()
+                    .name("stage").value(row.stage.label)
+                    .name("dimension").value(row.dimension)
+                    .name("name").value(row.name)
+                    .name("unit").value(row.unit())
+                    .name("count").value(row.count)
+                    .name("p50").value(row.p50)
+                    .name("p95").value(row.p95)
+                    .name("p99").value(row.p99)
+                    .name("max").value(row.max)
+                    .name("mean").value(row.mean)
+                    .endObject();
+        }
+        return json.endArray().finish();
+    }
+
+    public static String toCsv(List<Row> rows) {
+        StringBuilder csv = new StringBuilder("stage,dimension,name,unit,count,p50,p95,p99,max,mean\n");
+        for (Row row : rows) {
+            csv.append(csvField(row.stage.label)).append(',').append(row.dimension).append(',').append(csvField(row.name)).append(',')
+                    .append(row.unit()).append(',').append(row.count).append(',').append(row.p50).append(',').append(row.p95).append(',')
+                    .append(row.p99).append(',').append(row.max).append(',').append(row.mean).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /** Formats a row value for display: milliseconds for timed stages, plain counts for tokens. */
+    public static String format(Row row, long value) {
+        return row.stage.timed ? String.format(Locale.ROOT, "%.1f ms", value / 1000.0) : Long.toString(value);
+    }
+
+    /**
+     * DSA: log-linear histogram over AtomicLongArray buckets, so recording is a few shifts and one
+     * atomic increment with no locks. Values below 16 get exact buckets; above that each power of two
+     * is split into 16 sub-buckets, so percentiles are within about 6% of the true value.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS) * SUB_COUNT);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long value) {
+            buckets.incrementAndGet(bucketOf(value));
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        // Reads race with writers, which only makes a snapshot off by the samples recorded during it
+        long percentile(double p) {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max.get(), upperBoundOf(i));
+                }
+            }
+            return max.get();
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        // Largest value that lands in the bucket
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+            long sub = bucket % SUB_COUNT;
+            long lower = (1L << exponent) | (sub << (exponent - SUB_BITS));
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends one prompt to several models and keeps the first good answer.
+ *
+ * In race mode every model starts at once. In hedged mode the models start one at a time: the next
+ * one is launched when the previous one has run longer than its observed p95 latency, or right away
+ * if it failed. The p95 is the model's "Total" row in {@link Metrics}, so every completion counts
+ * toward it, streamed or not, raced or not. Either way the first non-empty, non-error completion wins and every other request is
+ * cancelled, which also takes it out of the {@link RequestScheduler} queue if it had not started yet.
+ *
+ * Settings (system properties):
+ *   devpilot.hedge.delay   millis to wait before a backup while a model has too few samples for a p95 (default 10000)
+ */
+public final class ModelRace {
+
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = Long.getLong("devpilot.hedge.delay", 10_000);
+    private static final int MIN_SAMPLES = 5;
+
+    /** The winning completion. */
+    public static final class Result {
+        public final String model;
+        public final String content;
+        public final long millis;
+
+        Result(String model, String content, long millis) {
+            this.model = model;
+            this.content = content;
+            this.millis = millis;
+        }
+    }
+
+    private ModelRace() {
+    }
+
+    /** Starts the prompt on every model at once. */
+    public static CompletableFuture<Result> race(CharSequence prompt, String analysisType, List<String> models) {
+        Race race = new Race(prompt, analysisType, models, false);
+        for (int i = 0; i < models.size(); i++) {
+            race.launchNext();
+        }
+        return race.result;
+    }
+
+    /** Starts the prompt on the first model and adds the others in order only while no answer has come back. */
+    public static CompletableFuture<Result> hedge(CharSequence prompt, String analysisType, List<String> models) {
+        Race race = new Race(prompt, analysisType, models, true);
+        race.launchNext();
+        return race.result;
+    }
+
+    /** Observed p95 latency of a model in millis, or -1 while there are too few samples. */
+    static long p95Millis(String model) {
+        Metrics.Row total = Metrics.row(Metrics.Stage.TOTAL, "model", model);
+        return total == null || total.count < MIN_SAMPLES ? -1 : TimeUnit.MICROSECONDS.toMillis(total.p95);
+    }
+
+    private static final class Race {
+        final CharSequence prompt;
+        final String analysisType;
+        final List<String> models;
+        final boolean hedged;
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<Result> result = new CompletableFuture<>();
+        final List<CompletableFuture<String>> attempts = new ArrayList<>();
+        int launched;
+        int failed;
+        Throwable lastFailure;
+        Result lastErrorPage;
+
+        Race(CharSequence prompt, String analysisType, List<String> models, boolean hedged) {
+            if (models.isEmpty()) {
+                throw new IllegalArgumentException("No models to race");
+            }
+            this.prompt = prompt;
+            this.analysisType = analysisType;
+            this.models = List.copyOf(models);
+            this.hedged = hedged;
+            // Whatever ends the race (a winner, total failure or the caller cancelling) stops the rest
+            result.whenComplete((r, ex) -> {
+                List<CompletableFuture<String>> running;
+                synchronized (this) {
+                    running = new ArrayList<>(attempts);
+                }
+                running.forEach(attempt -> attempt.cancel(true));
+            });
+        }
+
+        void launchNext() {
+            launch(-1);
+        }
+
+        // Starts the next model; with ifLaunched >= 0 only if no other model was started in the meantime
+        private void launch(int ifLaunched) {
+            String model;
+            int order;
+            synchronized (this) {
+                if (launched == models.size() || result.isDone() || (ifLaunched >= 0 && launched != ifLaunched)) {
+                    return;
+                }
+                model = models.get(launched++);
+                order = launched;
+            }
+            CompletableFuture<String> attempt = AnalysisPipeline.completeAsync(prompt, analysisType, model);
+            synchronized (this) {
+                attempts.add(attempt);
+            }
+            if (result.isDone()) {
+                attempt.cancel(true);
+                return;
+            }
+            attempt.whenComplete((content, ex) -> attemptDone(model, content, ex));
+            if (hedged && order < models.size()) {
+                // If this model is still running once it passes its p95, start the next one alongside it
+                long p95 = p95Millis(model);
+                CompletableFuture.runAsync(() -> launch(order),
+                        CompletableFuture.delayedExecutor(p95 >= 0 ? p95 : DEFAULT_HEDGE_DELAY_MILLIS, TimeUnit.MILLISECONDS));
+            }
+        }
+
+        private void attemptDone(String model, String content, Throwable ex) {
+            if (ex == null && !content.isBlank() && !AnalysisPipeline.isErrorPage(content)) {
+                result.complete(new Result(model, content, (System.nanoTime() - startNanos) / 1_000_000));
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            boolean allFailed;
+            Result errorPage;
+            Throwable failure;
+            synchronized (this) {
+                failed++;
+                if (ex != null) {
+                    lastFailure = ex;
+                } else {
+                    lastErrorPage = new Result(model, content.isBlank() ? "<b>Error:</b> " + model + " returned an empty response." : content,
+                            (System.nanoTime() - startNanos) / 1_000_000);
+                }
+                allFailed = failed == models.size();
+                errorPage = lastErrorPage;
+                failure = lastFailure;
+            }
+            if (!allFailed) {
+                // In hedged mode the next model may not have started yet; don't wait out the delay
+                launchNext();
+                return;
+            }
+            // Prefer showing a model's error page, like a single-model run would
+            if (errorPage != null) {
+                result.complete(errorPage);
+            } else {
+                Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+                result.completeExceptionally(new RuntimeException("All " + models.size() + " models failed. Last error: " + cause.getMessage(), cause));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared HTTP engine for every OpenRouter call.
+ * One long-lived HTTP/2 client keeps its connections pooled between requests, so back-to-back
+ * analyses reuse the same TLS session and multiplex over it instead of handshaking each time.
+ *
+ * Settings (system properties):
+ *   devpilot.http.connectTimeout   connect timeout in seconds (default 10)
+ *   devpilot.http.requestTimeout   time to response headers in seconds (default 60)
+ *   devpilot.http.keepAlive        idle seconds before a pooled connection is closed (default 300)
+ */
+public final class OpenRouterClient {
+
+    // API Key (read from environment variable to avoid hardcoding secrets)
+    static final String API_KEY = System.getenv("OPENROUTER_API_KEY");
+    static final String API_URL = System.getenv().getOrDefault("OPENROUTER_API_URL", "https://openrouter.ai/api/v1/chat/completions");
+
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(Integer.getInteger("devpilot.http.connectTimeout", 10));
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(Integer.getInteger("devpilot.http.requestTimeout", 60));
+
+    static {
+        // Read by the JDK connection pool when it is first loaded, so it must be set before building the client
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", Integer.getInteger("devpilot.http.keepAlive", 300).toString());
+        }
+    }
+
+    private static final OpenRouterClient SHARED = new OpenRouterClient();
+
+    private final ExecutorService executor;
+    private final HttpClient http;
+
+    private OpenRouterClient() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    public static OpenRouterClient shared() {
+        return SHARED;
+    }
+
+    /** Executor the client runs on; callers can use it for their own blocking work around a request. */
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    /** POSTs a chat-completions body and completes with the raw response. */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(String requestBody, HttpResponse.BodyHandler<T> handler) {
+        return http.sendAsync(newRequest(requestBody, false), handler);
+    }
+
+    /** POSTs a body with "stream": true; the handler receives the server-sent-events body. */
+    public <T> CompletableFuture<HttpResponse<T>> streamAsync(String requestBody, HttpResponse.BodyHandler<T> handler) {
+        return http.sendAsync(newRequest(requestBody, true), handler);
+    }
+
+    /**
+     * Opens a connection to the API host in the background so the first real request
+     * finds a pooled HTTP/2 connection. The response itself is ignored.
+     */
+    public void warmUp() {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(API_URL))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+        http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .exceptionally(ex -> null);
+    }
+
+    private HttpRequest newRequest(String requestBody, boolean stream) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(API_URL))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + API_KEY)
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .timeout(REQUEST_TIMEOUT);
+        if (stream) {
+            builder.header("Accept", "text/event-stream");
+        }
+        return builder.build();
+    }
+
+    /**
+     * Blocks on a future from this client and rethrows its real failure rather than the
+     * ExecutionException wrapper, so error messages stay the same as a synchronous send.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+}
@@ -1,45 +1,101 @@
+import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
 import javax.swing.plaf.basic.BasicScrollBarUI;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import com.formdev.flatlaf.FlatLightLaf; // Use FlatLaf core Light theme
 
 /**
  * AI Pair Programmer (Polished UI Version with FlatLaf and History)
- * Added DSA-based history storage using ArrayList and a simple UI button to view history.
+ * Added DSA-based history storage (append-only log with an offset index) and a simple UI button to view history.
  * MODIFIED: Forced vertical wrapping in the output pane to eliminate horizontal scrollbar.
  */
 public class PairProgrammer extends JFrame {
 
-    private final JTextArea inputCodeArea;
-    private final JEditorPane outputResultArea;
+    private final JEditorPane inputCodeArea;
+    // One tab per analysis job, so several results can be open side by side
+    private final JTabbedPane resultTabs;
+    private final JobTableModel jobsTableModel;
+    private final JTable jobsTable;
     private final JComboBox<String> analysisTypeComboBox;
     private final JComboBox<String> modelComboBox;
+    private final JComboBox<String> raceModeComboBox;
+    private final JButton raceModelsButton;
+    // Built on first use; until then every model counts as ticked
+    private JPopupMenu raceModelsMenu;
     private final JButton analyzeButton;
     private final JButton copyButton;
     private final JButton historyButton; // New button for history
+    private final JButton statsButton;
+    private final JButton stopButton;
+    private final JCheckBox streamCheckBox;
+    private final JCheckBox bypassCacheCheckBox;
+    private final JCheckBox splitLargeFilesCheckBox;
+    private final JCheckBox incrementalCheckBox;
+    private final JCheckBox compactCheckBox;
+    private final JLabel cacheStatsLabel;
+    private final JLabel promptStatsLabel;
     private final JProgressBar progressBar;
 
-    // History storage: Using ArrayList (DSA) for in-memory storage of chat history
-    private static final List<HistoryEntry> history = new ArrayList<>();
-
-    // API Key (read from environment variable to avoid hardcoding secrets)
-    private static final String API_KEY = System.getenv("OPENROUTER_API_KEY");
-    private static final String API_URL = "https://openrouter.ai/api/v1/chat/completions";
+    // Jobs shown in the jobs panel (EDT only)
+    private final Map<JobQueue.Job<Analysis>, JobView> jobViews = new HashMap<>();
+    // Result tab last seen selected (EDT only)
+    private JobView shownResult;
+    // Jobs changed since the last jobs refresh; worker threads add, one EDT pass drains them all
+    private final Set<JobQueue.Job<Analysis>> changedJobs = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean jobsRefreshScheduled = new AtomicBoolean();
+    // Summary of the last job to finish, shown once nothing is running (EDT only)
+    private String lastJobSummary = "Ready";
+
+    // History storage: append-only log on disk (DSA: offset index in a primitive array, bodies read lazily)
+    private static final HistoryStore history = HistoryStore.openDefault();
+    // Full-text index over the history log: read from its file and caught up in the background at startup,
+    // extended on every append, and saved again after the catch-up and on exit
+    private static final HistoryIndex historyIndex = new HistoryIndex(history.directory().resolve("search.idx"));
+    // Last analysis of each type in this session, so re-analysis can send only the changes
+    private static final IncrementalAnalyzer incrementalAnalyzer = new IncrementalAnalyzer(history);
+
+    // Analyses run here, several at once; identical requests in flight share one run
+    private static final JobQueue<Analysis> jobs = JobQueue.createDefault();
+
+    // Response cache keyed on (code, analysis type, model, AnalysisPipeline.PROMPT_VERSION, compaction mode)
+    private static final ResponseCache responseCache = ResponseCache.createDefault();
 
     // UI Color and Font Constants (Adjusted for FlatLaf compatibility)
     private static final Color BG_COLOR = new Color(255, 255, 255); // Matches FlatLaf light theme
@@ -50,6 +106,8 @@ public class PairProgrammer extends JFrame {
     private static final Color ACCENT_COLOR_BLUE = new Color(0, 122, 204);
     private static final Font UI_FONT = new Font("Segoe UI", Font.PLAIN, 12);
     private static final Font CODE_FONT = new Font("Consolas", Font.PLAIN, 14);
+    private static final HtmlPage HTML_PAGE = new HtmlPage(TEXT_AREA_BG_COLOR, FOREGROUND_COLOR, BG_COLOR, BORDER_COLOR);
+    private static final int LOGO_SIZE = 60;
 
     public PairProgrammer() {
         // Frame Setup
@@ -64,11 +122,10 @@ public class PairProgrammer extends JFrame {
         headerPanel.setBackground(COMPONENT_BG_COLOR);
         headerPanel.setBorder(BorderFactory.createMatteBorder(0, 0, 1, 0, BORDER_COLOR));
 
-        // Logo
+        // Logo, decoded and scaled in the background; its space is reserved so the header does not shift
         JLabel logoLabel = new JLabel();
-        ImageIcon logoIcon = new ImageIcon("logo.png"); // Place logo.png in project root
-        Image scaledLogo = logoIcon.getImage().getScaledInstance(60, 60, Image.SCALE_SMOOTH);
-        logoLabel.setIcon(new ImageIcon(scaledLogo));
+        logoLabel.setPreferredSize(new Dimension(LOGO_SIZE, LOGO_SIZE));
+        loadLogo(logoLabel);
         headerPanel.add(logoLabel);
 
         // Title
@@ -85,27 +142,39 @@ public class PairProgrammer extends JFrame {
         mainPanel.setBackground(BG_COLOR);
 
         // Input and Output Panels
-        JPanel inputPanel = createTextPanel("Your Code", inputCodeArea = new JTextArea());
+        // Piece-table document with a view that only wraps what it paints, for very large inputs
+        inputCodeArea = new JEditorPane();
+        inputCodeArea.setEditorKit(new CodeEditorKit());
+        JPanel inputPanel = createTextPanel("Your Code", inputCodeArea);
         inputCodeArea.setText(getSampleCode());
 
-        // --- MODIFICATION START ---
-        // Use an anonymous inner class for JEditorPane to override its scrolling behavior.
-        outputResultArea = new JEditorPane() {
-            @Override
-            public boolean getScrollableTracksViewportWidth() {
-                // This forces the content to wrap vertically and disables horizontal scrolling.
-                return true;
-            }
-        };
-        // --- MODIFICATION END ---
+        // Each analysis gets its own result tab; closing the tab of a running job cancels it
+        resultTabs = new JTabbedPane();
+        resultTabs.setFont(UI_FONT);
+        resultTabs.setTabLayoutPolicy(JTabbedPane.SCROLL_TAB_LAYOUT);
+        resultTabs.putClientProperty("JTabbedPane.tabClosable", true);
+        resultTabs.putClientProperty("JTabbedPane.tabCloseCallback", (BiConsumer<JTabbedPane, Integer>) (tabs, tab) -> closeResultTab(tab));
+        resultTabs.addChangeListener(e -> resultTabChanged());
+        JPanel outputPanel = new JPanel(new BorderLayout());
+        outputPanel.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(BORDER_COLOR),
+                new EmptyBorder(5, 5, 5, 5)
+        ));
+        outputPanel.setBackground(BG_COLOR);
+        outputPanel.add(resultTabs, BorderLayout.CENTER);
+
+        // Jobs panel: queued and running analyses with their progress, plus finished ones until cleared
+        jobsTableModel = new JobTableModel();
+        jobsTable = new JTable(jobsTableModel);
+        JPanel jobsPanel = createJobsPanel();
 
-        JPanel outputPanel = createTextPanel("AI Feedback", outputResultArea);
-        outputResultArea.setContentType("text/html");
-        outputResultArea.setEditable(false);
-        outputResultArea.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
+        JSplitPane resultsSplitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, outputPanel, jobsPanel);
+        resultsSplitPane.setResizeWeight(0.8);
+        resultsSplitPane.setBorder(null);
+        resultsSplitPane.setDividerSize(8);
 
         // Split Pane
-        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, inputPanel, outputPanel);
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, inputPanel, resultsSplitPane);
         splitPane.setResizeWeight(0.5);
         splitPane.setBorder(null);
         splitPane.setDividerSize(8);
@@ -116,21 +185,54 @@ public class PairProgrammer extends JFrame {
         controlsPanel.setBorder(BorderFactory.createMatteBorder(1, 0, 0, 0, BORDER_COLOR));
 
         controlsPanel.add(createStyledLabel("Analysis Type:"));
-        String[] analysisTypes = {"Explain Code", "Find Bugs", "Refactor Code", "Add Comments", "Generate Unit Tests"};
-        analysisTypeComboBox = createStyledComboBox(analysisTypes);
+        analysisTypeComboBox = createStyledComboBox(AnalysisPipeline.ANALYSIS_TYPES);
         controlsPanel.add(analysisTypeComboBox);
 
         controlsPanel.add(createStyledLabel("AI Model:"));
-        String[] models = {"nvidia/nemotron-nano-9b-v2:free", "openai/gpt-4o-mini", "openchat/openchat-7b:free", "google/gemini-2.0-flash-001", "x-ai/grok-code-fast-1"};
-        modelComboBox = createStyledComboBox(models);
+        modelComboBox = createStyledComboBox(AnalysisPipeline.MODELS);
         controlsPanel.add(modelComboBox);
 
+        // Race/Hedge send the prompt to the selected model plus the ones ticked under "Models..." (see ModelRace)
+        raceModeComboBox = createStyledComboBox(new String[]{"Single Model", "Race", "Hedge"});
+        controlsPanel.add(raceModeComboBox);
+        raceModelsButton = createStyledButton("Models...");
+        raceModelsButton.setEnabled(false);
+        controlsPanel.add(raceModelsButton);
+
         analyzeButton = createStyledButton("Analyze");
         copyButton = createStyledButton("Copy");
         historyButton = createStyledButton("View History"); // New history button
+        statsButton = createStyledButton("Stats");
+        stopButton = createStyledButton("Stop All");
+        stopButton.setEnabled(false);
+        streamCheckBox = new JCheckBox("Stream", true);
+        streamCheckBox.setFont(UI_FONT);
+        streamCheckBox.setBackground(COMPONENT_BG_COLOR);
+        bypassCacheCheckBox = new JCheckBox("Bypass Cache");
+        bypassCacheCheckBox.setFont(UI_FONT);
+        bypassCacheCheckBox.setBackground(COMPONENT_BG_COLOR);
+        // Inputs over the chunk token budget are analyzed in parts (see LargeFileAnalyzer)
+        splitLargeFilesCheckBox = new JCheckBox("Split Large Files", true);
+        splitLargeFilesCheckBox.setFont(UI_FONT);
+        splitLargeFilesCheckBox.setBackground(COMPONENT_BG_COLOR);
+        // Re-analysis sends the changes since the last run plus the previous response (see IncrementalAnalyzer)
+        incrementalCheckBox = new JCheckBox("Incremental", true);
+        incrementalCheckBox.setFont(UI_FONT);
+        incrementalCheckBox.setBackground(COMPONENT_BG_COLOR);
+        // Whitespace, comments and repeated boilerplate are dropped before sending (see PromptCompactor)
+        compactCheckBox = new JCheckBox("Compact", PromptCompactor.ENABLED);
+        compactCheckBox.setFont(UI_FONT);
+        compactCheckBox.setBackground(COMPONENT_BG_COLOR);
+        controlsPanel.add(streamCheckBox);
+        controlsPanel.add(bypassCacheCheckBox);
+        controlsPanel.add(splitLargeFilesCheckBox);
+        controlsPanel.add(incrementalCheckBox);
+        controlsPanel.add(compactCheckBox);
         controlsPanel.add(analyzeButton);
+        controlsPanel.add(stopButton);
         controlsPanel.add(copyButton);
         controlsPanel.add(historyButton);
+        controlsPanel.add(statsButton);
 
         progressBar = new JProgressBar();
         progressBar.setPreferredSize(new Dimension(200, 25));
@@ -142,6 +244,12 @@ public class PairProgrammer extends JFrame {
         progressBar.setBorder(BorderFactory.createLineBorder(BORDER_COLOR));
         controlsPanel.add(progressBar);
 
+        cacheStatsLabel = createStyledLabel("");
+        controlsPanel.add(cacheStatsLabel);
+        updateCacheStatsLabel();
+        promptStatsLabel = createStyledLabel("");
+        controlsPanel.add(promptStatsLabel);
+
         // Add components to frame
         mainPanel.add(splitPane, BorderLayout.CENTER);
         add(mainPanel, BorderLayout.CENTER);
@@ -149,8 +257,66 @@ public class PairProgrammer extends JFrame {
 
         // Action Listeners
         analyzeButton.addActionListener(e -> analyzeCodeAction());
+        raceModeComboBox.addActionListener(e -> raceModelsButton.setEnabled(raceModeComboBox.getSelectedIndex() != 0));
+        raceModelsButton.addActionListener(e -> raceModelsMenu().show(raceModelsButton, 0, raceModelsButton.getHeight()));
+        stopButton.addActionListener(e -> stopAllJobsAction());
         copyButton.addActionListener(e -> copyOutputToClipboard());
         historyButton.addActionListener(e -> showHistoryDialog()); // Listener for history button
+        statsButton.addActionListener(e -> showStatsDialog());
+    }
+
+    // The first paint of the window marks time to first frame and starts the deferred warm-up (see Startup)
+    @Override
+    protected JRootPane createRootPane() {
+        JRootPane rootPane = new JRootPane() {
+            @Override
+            public void paint(Graphics g) {
+                super.paint(g);
+                Startup.framePainted(PairProgrammer.this::warmUp);
+            }
+        };
+        rootPane.setOpaque(true);
+        return rootPane;
+    }
+
+    // Decodes and scales logo.png (in the working directory) off the EDT; without it the header shows the title alone
+    private static void loadLogo(JLabel logoLabel) {
+        new SwingWorker<Icon, Void>() {
+            @Override
+            protected Icon doInBackground() throws IOException {
+                BufferedImage source = ImageIO.read(new File("logo.png"));
+                // One bicubic draw; the logo is only a little larger than it is shown
+                BufferedImage scaled = new BufferedImage(LOGO_SIZE, LOGO_SIZE, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = scaled.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(source, 0, 0, LOGO_SIZE, LOGO_SIZE, null);
+                g.dispose();
+                return new ImageIcon(scaled);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    logoLabel.setIcon(get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    // No logo; the space stays empty as it did when the file was missing
+                }
+            }
+        }.execute();
+    }
+
+    // What the first analysis would otherwise wait for; runs on a background thread once the window has painted
+    private void warmUp() {
+        // Builds the pooled HTTP client (TLS setup included) and opens a connection
+        OpenRouterClient.shared().warmUp();
+        // Loads the HTML parser, its DTD and the default style sheet
+        htmlRenderer().render("<p>DevPilot</p>");
+        htmlRenderer().onEvicted(index -> SwingUtilities.invokeLater(() -> documentEvicted(index)));
+        ChatCompletion.parse("{\"choices\":[{\"delta\":{\"content\":\"DevPilot\"}}]}");
+        historyIndex.catchUp(history);
+        historyIndex.save();
+        Runtime.getRuntime().addShutdownHook(new Thread(historyIndex::save, "devpilot-index-save"));
     }
 
     private JPanel createTextPanel(String title, Component textComponent) {
@@ -191,6 +357,67 @@ public class PairProgrammer extends JFrame {
         return panel;
     }
 
+    private JPanel createJobsPanel() {
+        jobsTable.setFont(UI_FONT);
+        jobsTable.setRowHeight(22);
+        jobsTable.getColumnModel().getColumn(0).setPreferredWidth(260);
+        jobsTable.getColumnModel().getColumn(1).setPreferredWidth(220);
+        jobsTable.getColumnModel().getColumn(1).setCellRenderer(new JobProgressRenderer());
+        // Double-click shows the job's result tab, reopening it if it was closed
+        jobsTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = jobsTable.getSelectedRow();
+                if (e.getClickCount() == 2 && row >= 0) {
+                    showResultTab(jobsTableModel.viewAt(jobsTable.convertRowIndexToModel(row)));
+                }
+            }
+        });
+
+        JButton cancelButton = createStyledButton("Cancel");
+        cancelButton.addActionListener(e -> {
+            for (int row : jobsTable.getSelectedRows()) {
+                jobsTableModel.viewAt(jobsTable.convertRowIndexToModel(row)).job.cancel();
+            }
+        });
+        JButton clearButton = createStyledButton("Clear Finished");
+        clearButton.addActionListener(e -> jobsTableModel.removeFinished());
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 5));
+        buttons.setBackground(COMPONENT_BG_COLOR);
+        buttons.add(cancelButton);
+        buttons.add(clearButton);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createLineBorder(BORDER_COLOR));
+        panel.setBackground(BG_COLOR);
+        JScrollPane scrollPane = new JScrollPane(jobsTable);
+        scrollPane.setBorder(null);
+        scrollPane.getVerticalScrollBar().setUI(new CustomScrollBarUI());
+        panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(buttons, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    // HTML pane for one job's result
+    private JEditorPane createResultPane() {
+        JEditorPane pane = new JEditorPane() {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                // This forces the content to wrap vertically and disables horizontal scrolling.
+                return true;
+            }
+        };
+        pane.setEditorKit(htmlRenderer().newEditorKit());
+        pane.setEditable(false);
+        pane.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
+        pane.setFont(CODE_FONT);
+        pane.setForeground(FOREGROUND_COLOR);
+        // The lazy body view leaves the page margin and background to the pane
+        pane.setBackground(TEXT_AREA_BG_COLOR);
+        pane.setMargin(new Insets(10, 10, 10, 10));
+        return pane;
+    }
+
     private JLabel createStyledLabel(String text) {
         JLabel label = new JLabel(text);
         label.setForeground(FOREGROUND_COLOR);
@@ -235,163 +462,447 @@ public class PairProgrammer extends JFrame {
     }
 
     private void analyzeCodeAction() {
-        String code = inputCodeArea.getText();
-        if (code.trim().isEmpty()) {
+        // A snapshot of the editor's text, taken without copying it; the editor stays usable while the job runs
+        PieceTable code = ((PieceTableDocument) inputCodeArea.getDocument()).snapshot();
+        if (isBlank(code)) {
             showErrorDialog("Please enter some code to analyze.", "Input Required");
             return;
         }
-        if (API_KEY == null || API_KEY.isBlank()) {
+        if (OpenRouterClient.API_KEY == null || OpenRouterClient.API_KEY.isBlank()) {
             showErrorDialog("Please set the OPENROUTER_API_KEY environment variable before running.", "API Key Missing");
             return;
         }
 
-        setControlsEnabled(false);
-        progressBar.setIndeterminate(true);
-        progressBar.setString("Contacting AI...");
-        outputResultArea.setText(buildHtmlWrapper("Analyzing... Please wait."));
+        String model = (String) modelComboBox.getSelectedItem();
+        int raceMode = raceModeComboBox.getSelectedIndex();
+        AnalysisRequest request = new AnalysisRequest(code, (String) analysisTypeComboBox.getSelectedItem(), model,
+                raceMode == 0 ? List.of(model) : raceCandidates(model), raceMode,
+                streamCheckBox.isSelected(), bypassCacheCheckBox.isSelected(), splitLargeFilesCheckBox.isSelected(),
+                incrementalCheckBox.isSelected(), compactCheckBox.isSelected());
+
+        // Same snapshot, type, models and options as a job still in flight: share its run instead of asking again.
+        // A bypass-cache request only shares with another one, since a cached answer is what it asked to skip
+        JobKey key = new JobKey(code, request.analysisType, request.candidates, request.raceMode,
+                PromptCompactor.mode(request.compact, request.analysisType), request.incremental, request.splitLargeFiles, request.bypassCache);
+        String title = request.analysisType + " \u00b7 " + String.join(", ", request.candidates);
+        JobQueue.Job<Analysis> job = jobs.submit(key, title, progress -> analyze(request, progress), this::jobChanged);
+
+        JobView view = new JobView(job, request.analysisType, createResultPane());
+        view.pane.setText(buildHtmlWrapper(job.isShared() ? "Waiting for the same analysis already in progress..." : "Analyzing... Please wait."));
+        jobViews.put(job, view);
+        jobsTableModel.add(view);
+        showResultTab(view);
+        refreshJobsSummary();
+    }
 
-        new SwingWorker<String, Void>() {
-            @Override
-            protected String doInBackground() throws Exception {
-                String analysisType = (String) analysisTypeComboBox.getSelectedItem();
-                String model = (String) modelComboBox.getSelectedItem();
-                return callOpenRouterAPI(code, analysisType, model);
+    // Runs on a job thread: cache lookup, then the incremental plan, compaction, and one request, a race or a map-reduce over parts
+    private Analysis analyze(AnalysisRequest request, JobQueue.Progress progress) throws Exception {
+        Analysis analysis = new Analysis(request.model);
+        // Read straight from the snapshot: hashed once for every key below, without a copy of the text
+        PieceTable code = request.code;
+        String codeHash = ResponseCache.contentHash(code);
+        if (!request.bypassCache) {
+            // Any candidate's answer will do; one lookup however many candidates it tries
+            List<String> keys = new ArrayList<>();
+            for (String candidate : request.candidates) {
+                keys.add(ResponseCache.key(codeHash, request.analysisType, candidate, AnalysisPipeline.PROMPT_VERSION,
+                        PromptCompactor.mode(request.compact, request.analysisType)));
             }
-
-            @Override
-            protected void done() {
-                try {
-                    String response = get();
-                    outputResultArea.setText(buildHtmlWrapper(response));
-
-                    // Add to history (DSA: Append to ArrayList)
-                    String analysisType = (String) analysisTypeComboBox.getSelectedItem();
-                    String model = (String) modelComboBox.getSelectedItem();
-                    history.add(new HistoryEntry(code, analysisType, model, response));
-                } catch (InterruptedException | ExecutionException ex) {
-                    String errorMsg = "API Error: " + ex.getCause().getMessage();
-                    outputResultArea.setText(buildHtmlWrapper(errorMsg));
-                    showErrorDialog(errorMsg, "API Error");
-                } finally {
-                    outputResultArea.setCaretPosition(0);
-                    setControlsEnabled(true);
-                    progressBar.setIndeterminate(false);
-                    progressBar.setString("Ready");
-                }
+            ResponseCache.Hit cached = responseCache.getFirst(keys);
+            if (cached != null) {
+                analysis.cacheHit = true;
+                analysis.answeredBy = request.candidates.get(cached.index());
+                return record(request, analysis, cached.response());
             }
-        }.execute();
+        }
+        progress.status("Contacting AI...");
+        String response;
+        if (request.incremental) {
+            long buildStart = System.nanoTime();
+            // A race may be answered by any candidate; the plan builds on the selected model's last answer
+            analysis.plan = incrementalAnalyzer.plan(code, request.analysisType, request.model);
+            if (analysis.plan != null) {
+                Metrics.record(Metrics.Stage.PROMPT_BUILD, null, request.analysisType, System.nanoTime() - buildStart);
+            }
+        }
+        CharSequence input = request.code;
+        if (analysis.plan == null && request.compact) {
+            long compactStart = System.nanoTime();
+            analysis.compacted = PromptCompactor.compact(code, request.analysisType);
+            Metrics.record(Metrics.Stage.PROMPT_BUILD, null, request.analysisType, System.nanoTime() - compactStart);
+            input = analysis.compacted.text;
+        }
+        if (analysis.plan == null && request.splitLargeFiles && LargeFileAnalyzer.needsSplitting(input)) {
+            // Large inputs are not raced: every part would multiply the request count by the number of models
+            // Map-reduce: per-part reports are shown as they finish, then replaced by the merged report
+            AtomicInteger partsDone = new AtomicInteger();
+            response = OpenRouterClient.await(LargeFileAnalyzer.analyze(input.toString(), request.analysisType, request.model, LargeFileAnalyzer.PARALLELISM,
+                    (chunk, chunks, result) -> {
+                        progress.append("<h3>Part " + (chunk.index + 1) + " of " + chunks + " (lines " + chunk.firstLine + "-" + chunk.lastLine + ")</h3>" + result);
+                        progress.parts(partsDone.incrementAndGet(), chunks);
+                    }));
+        } else {
+            CharSequence prompt;
+            if (analysis.plan != null) {
+                prompt = analysis.plan.prompt;
+            } else if (analysis.compacted != null) {
+                // Sent whole, so it has to fit the smallest context window among the models asked
+                analysis.compacted = analysis.compacted.fit(request.candidates.stream().mapToInt(PromptCompactor::budget).min().getAsInt());
+                prompt = AnalysisPipeline.buildPrompt(analysis.compacted, request.analysisType);
+            } else {
+                long buildStart = System.nanoTime();
+                prompt = AnalysisPipeline.buildPrompt(request.code, request.analysisType);
+                Metrics.record(Metrics.Stage.PROMPT_BUILD, null, request.analysisType, System.nanoTime() - buildStart);
+            }
+            response = complete(request, analysis, prompt, progress);
+        }
+        // Parse failures come back as an error page rather than an exception; don't keep those. Nor answers
+        // about a cut-down file: they are cached under the whole file's key and would be served for it later
+        if (!response.isEmpty() && !AnalysisPipeline.isErrorPage(response) && !analysis.truncated()) {
+            responseCache.put(ResponseCache.key(codeHash, request.analysisType, analysis.answeredBy, AnalysisPipeline.PROMPT_VERSION,
+                    PromptCompactor.mode(request.compact, request.analysisType)), response);
+        }
+        return record(request, analysis, response);
+    }
+
+    // Sends the prompt to the selected model, or races it across the candidates
+    private String complete(AnalysisRequest request, Analysis analysis, CharSequence prompt, JobQueue.Progress progress) throws Exception {
+        if (request.candidates.size() > 1) {
+            progress.status("Racing " + request.candidates.size() + " models...");
+            ModelRace.Result winner = OpenRouterClient.await(request.raceMode == 1
+                    ? ModelRace.race(prompt, request.analysisType, request.candidates)
+                    : ModelRace.hedge(prompt, request.analysisType, request.candidates));
+            analysis.answeredBy = winner.model;
+            analysis.raceMillis = winner.millis;
+            return winner.content;
+        }
+        if (request.streaming) {
+            return streamOpenRouterAPI(prompt, request.analysisType, request.model, progress);
+        }
+        return OpenRouterClient.await(AnalysisPipeline.completeAsync(prompt, request.analysisType, request.model));
     }
 
-    private String callOpenRouterAPI(String code, String analysisType, String model) throws Exception {
-        String prompt = buildPrompt(code, analysisType);
-        HttpClient client = HttpClient.newHttpClient();
-        String requestBody = String.format("{\"model\": \"%s\", \"messages\": [{\"role\": \"user\", \"content\": \"%s\"}]}", model, escapeJson(prompt));
+    private Analysis record(AnalysisRequest request, Analysis analysis, String response) {
+        // Add to history (appended and synced here so the disk write stays off the EDT)
+        int index = history.append(request.code, request.analysisType, analysis.answeredBy, response, LocalDateTime.now());
+        historyIndex.catchUp(history);
+        incrementalAnalyzer.analyzed(request.analysisType, analysis.answeredBy, index, response, !analysis.truncated());
+        long parseStart = System.nanoTime();
+        HTMLDocument rendered = htmlRenderer().render(response);
+        analysis.parseNanos = System.nanoTime() - parseStart;
+        // Handed to the tab through the renderer's cache, so the document is charged to the memory budget from the start
+        htmlRenderer().cache(index, rendered);
+        analysis.historyIndex = index;
+        return analysis;
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(API_URL))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + API_KEY)
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                .timeout(Duration.ofSeconds(60))
-                .build();
+    // Called on job threads; changes are batched into one EDT pass however fast they arrive
+    private void jobChanged(JobQueue.Job<Analysis> job) {
+        changedJobs.add(job);
+        if (jobsRefreshScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::refreshJobs);
+        }
+    }
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    private void refreshJobs() {
+        jobsRefreshScheduled.set(false);
+        for (Iterator<JobQueue.Job<Analysis>> it = changedJobs.iterator(); it.hasNext(); ) {
+            JobView view = jobViews.get(it.next());
+            it.remove();
+            if (view != null && !view.finished) {
+                view.update();
+                jobsTableModel.changed(view);
+            }
+        }
+        refreshJobsSummary();
+    }
 
-        if (response.statusCode() == 200) {
-            return parseContentFromResponse(response.body());
+    // Progress bar and Stop All reflect every job; once none is left the last one's outcome is shown
+    private void refreshJobsSummary() {
+        int running = 0;
+        int queued = 0;
+        for (JobView view : jobViews.values()) {
+            JobQueue.State state = view.job.state();
+            if (state == JobQueue.State.RUNNING) {
+                running++;
+            } else if (state == JobQueue.State.QUEUED) {
+                queued++;
+            }
+        }
+        stopButton.setEnabled(running + queued > 0);
+        progressBar.setIndeterminate(running + queued > 0);
+        if (running + queued > 0) {
+            progressBar.setString(running + " running" + (queued > 0 ? ", " + queued + " queued" : ""));
         } else {
-            throw new RuntimeException("API request failed. Status: " + response.statusCode() + " Body: " + response.body());
+            progressBar.setString(lastJobSummary);
         }
     }
 
-    private String parseContentFromResponse(String responseBody) {
-        String contentKey = "\"content\":\"";
-        int start = responseBody.indexOf(contentKey);
+    private void showResultTab(JobView view) {
+        int tab = resultTabs.indexOfComponent(view.tab);
+        if (tab < 0) {
+            resultTabs.addTab("#" + view.job.id + " " + view.analysisType, null, view.tab, view.job.title);
+            tab = resultTabs.getTabCount() - 1;
+        }
+        resultTabs.setSelectedIndex(tab);
+    }
 
-        if (start == -1) {
-            return "<b>Error:</b> Could not find 'content' key in AI response.<br><pre>" + escapeHtml(responseBody) + "</pre>";
+    private void closeResultTab(int tab) {
+        JobView view = (JobView) ((JComponent) resultTabs.getComponentAt(tab)).getClientProperty(JobView.class);
+        resultTabs.removeTabAt(tab);
+        // No-op for a finished job; the jobs panel can still reopen its tab
+        view.job.cancel();
+    }
+
+    // A tab that was showing let go of its document when it went out of view and the cache no longer has it
+    private void resultTabChanged() {
+        JobView selected = selectedResult();
+        if (shownResult != null && shownResult != selected) {
+            shownResult.hidden();
+        }
+        shownResult = selected;
+        if (selected != null) {
+            selected.shown();
         }
+    }
 
-        int startIndex = start + contentKey.length();
-        int endIndex = -1;
-        int searchIndex = startIndex;
+    // Tabs, open or closed, still holding the document the renderer just evicted let go of it, except the one on screen
+    private void documentEvicted(int historyIndex) {
+        Set<JobView> views = new HashSet<>(jobViews.values());
+        for (int tab = 0; tab < resultTabs.getTabCount(); tab++) {
+            views.add((JobView) ((JComponent) resultTabs.getComponentAt(tab)).getClientProperty(JobView.class));
+        }
+        for (JobView view : views) {
+            if (view.historyIndex == historyIndex) {
+                view.documentEvicted(view == shownResult);
+            }
+        }
+    }
 
-        while ((endIndex = responseBody.indexOf('"', searchIndex)) != -1) {
-            if (responseBody.charAt(endIndex - 1) == '\\') {
-                searchIndex = endIndex + 1;
-            } else {
-                break;
+    private JobView selectedResult() {
+        JComponent selected = (JComponent) resultTabs.getSelectedComponent();
+        return selected == null ? null : (JobView) selected.getClientProperty(JobView.class);
+    }
+
+    private JPopupMenu raceModelsMenu() {
+        if (raceModelsMenu == null) {
+            raceModelsMenu = new JPopupMenu();
+            for (String raceModel : AnalysisPipeline.MODELS) {
+                JCheckBoxMenuItem item = new JCheckBoxMenuItem(raceModel, true);
+                item.setFont(UI_FONT);
+                raceModelsMenu.add(item);
+            }
+        }
+        return raceModelsMenu;
+    }
+
+    // The selected model first (it is the primary when hedging), then the other ticked models in list order
+    private List<String> raceCandidates(String primary) {
+        List<String> candidates = new ArrayList<>();
+        candidates.add(primary);
+        for (Component item : raceModelsMenu().getComponents()) {
+            JCheckBoxMenuItem checkItem = (JCheckBoxMenuItem) item;
+            if (checkItem.isSelected() && !checkItem.getText().equals(primary)) {
+                candidates.add(checkItem.getText());
             }
         }
+        return candidates;
+    }
+
+    private void updateCacheStatsLabel() {
+        cacheStatsLabel.setText("Cache: " + responseCache.hits() + " hits / " + responseCache.misses() + " misses");
+    }
 
-        if (endIndex == -1) {
-            return "<b>Error:</b> Could not find a closing quote for the content.<br><pre>" + escapeHtml(responseBody) + "</pre>";
+    private void updatePromptStatsLabel(PromptCompactor.Result compacted) {
+        if (compacted == null) {
+            promptStatsLabel.setText("");
+            return;
+        }
+        long saved = compacted.tokensBefore == 0 ? 0 : 100L * (compacted.tokensBefore - compacted.tokensAfter) / compacted.tokensBefore;
+        String text = String.format("Prompt: ~%,d \u2192 %,d tokens (-%d%%)", compacted.tokensBefore, compacted.tokensAfter, saved);
+        if (compacted.omittedFromLine > 0) {
+            text += ", cut at line " + compacted.omittedFromLine;
         }
+        promptStatsLabel.setText(text);
+    }
 
-        String content = responseBody.substring(startIndex, endIndex);
-        return unescapeJson(content);
+    private void stopAllJobsAction() {
+        for (JobView view : new ArrayList<>(jobViews.values())) {
+            view.job.cancel();
+        }
     }
 
-    private String buildPrompt(String code, String analysisType) {
-        String baseInstruction = "You are an expert programmer and code reviewer. Format your entire response using simple HTML. Use <pre><code> for code blocks, <ul> and <li> for lists, and <b> for bold text. Do not include any text outside of the main HTML body content.";
-        String task;
-        switch (analysisType) {
-            case "Find Bugs": task = "Analyze the code for bugs. Provide a list of issues."; break;
-            case "Refactor Code": task = "Refactor the code for clarity and efficiency. Provide the refactored code and explain changes."; break;
-            case "Add Comments": task = "Add comments to the code. Provide the complete commented code."; break;
-            case "Generate Unit Tests": task = "Write unit tests for the code. Provide the complete test code."; break;
-            default: task = "Explain the code in simple terms."; break;
+    // Streaming variant: sends "stream": true and reads the server-sent-events body line by line.
+    private String streamOpenRouterAPI(CharSequence prompt, String analysisType, String model, JobQueue.Progress progress) throws Exception {
+        long builtNanos = System.nanoTime();
+        String requestBody = ChatCompletion.requestBody(model, prompt, true);
+        long serializedNanos = System.nanoTime();
+        Metrics.record(Metrics.Stage.SERIALIZE, model, analysisType, serializedNanos - builtNanos);
+
+        HttpResponse<Stream<String>> response = OpenRouterClient.await(RequestScheduler.shared()
+                .submit(model, AnalysisPipeline.queueTimer(serializedNanos, analysisType, model),
+                        () -> OpenRouterClient.shared().streamAsync(requestBody,
+                                AnalysisPipeline.timed(HttpResponse.BodyHandlers.ofLines(), analysisType, model))));
+
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("API request failed. Status: " + response.statusCode() + " Body: " + lines.collect(Collectors.joining("\n")));
+            }
+            // Closing the body stream aborts the HTTP exchange instead of letting it drain in the background
+            progress.onCancel(lines::close);
+
+            StringBuilder content = new StringBuilder();
+            long parseNanos = 0;
+            Iterator<String> it = lines.iterator();
+            while (it.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Stream stopped");
+                }
+                String line = it.next();
+                // Skip blank event separators and ": keep-alive" comment lines
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring(5).trim();
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+                // Role-only and finish chunks carry no content; the last one may carry usage
+                long parseStart = System.nanoTime();
+                ChatCompletion chunk = ChatCompletion.parse(data);
+                parseNanos += System.nanoTime() - parseStart;
+                Metrics.recordUsage(chunk, model, analysisType);
+                if (chunk.isError()) {
+                    throw new RuntimeException("API stream error: " + chunk.errorMessage);
+                }
+                String delta = chunk.content;
+                if (delta == null || delta.isEmpty()) {
+                    continue;
+                }
+                content.append(delta);
+                progress.append(delta);
+            }
+            Metrics.record(Metrics.Stage.PARSE, model, analysisType, parseNanos);
+            Metrics.record(Metrics.Stage.TOTAL, model, analysisType, System.nanoTime() - builtNanos);
+            return content.toString();
         }
-        return baseInstruction + "\n\n" + task + "\n\nCode to analyze:\n" + code;
     }
 
     private void copyOutputToClipboard() {
-        String textToCopy = outputResultArea.getText();
-        StringSelection stringSelection = new StringSelection(textToCopy);
+        JobView view = selectedResult();
+        if (view == null) {
+            return;
+        }
+        StringSelection stringSelection = new StringSelection(view.pane.getText());
         Toolkit.getDefaultToolkit().getSystemClipboard().setContents(stringSelection, null);
         progressBar.setString("Copied to clipboard!");
     }
 
-    private void setControlsEnabled(boolean enabled) {
-        analyzeButton.setEnabled(enabled);
-        copyButton.setEnabled(enabled);
-        historyButton.setEnabled(enabled); // Include history button
-        analysisTypeComboBox.setEnabled(enabled);
-        modelComboBox.setEnabled(enabled);
-        inputCodeArea.setEnabled(enabled);
+    // Same test as trim().isEmpty(), without copying the text
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void showErrorDialog(String message, String title) {
         JOptionPane.showMessageDialog(this, message, title, JOptionPane.ERROR_MESSAGE);
     }
 
-    private String escapeJson(String s) {
-        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    private String buildHtmlWrapper(String content) {
+        return HTML_PAGE.wrap(content);
     }
 
-    private String unescapeJson(String s) {
-        return s.replace("\\\\", "\\").replace("\\\"", "\"").replace("\\n", "\n");
+    // Created on first use, by the warm-up at the latest: loading the HTML classes and default style sheet
+    // in the static initializer held up the first frame
+    private static HtmlRenderer htmlRenderer() {
+        return HtmlRendererHolder.INSTANCE;
     }
 
-    private String escapeHtml(String s) {
-        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    private static final class HtmlRendererHolder {
+        static final HtmlRenderer INSTANCE = new HtmlRenderer(HTML_PAGE);
     }
 
-    private String buildHtmlWrapper(String content) {
-        String style = "body { font-family: Segoe UI, sans-serif; background-color: " + toHex(TEXT_AREA_BG_COLOR) + "; color: " + toHex(FOREGROUND_COLOR) + "; margin: 10px; }" +
-                "pre { background-color: " + toHex(BG_COLOR) + "; border: 1px solid " + toHex(BORDER_COLOR) + "; padding: 10px; border-radius: 5px; white-space: pre-wrap; word-wrap: break-word; }" +
-                "code { font-family: Consolas, monospace; }" +
-                "ul { margin-left: 20px; }";
-        return "<html><head><style>" + style + "</style></head><body>" + content + "</body></html>";
+    // Latency and token histograms from Metrics, one row per (stage, model or analysis type)
+    private void showStatsDialog() {
+        JDialog dialog = new JDialog(this, "Request Stats", true);
+        dialog.setSize(900, 500);
+        dialog.setLocationRelativeTo(this);
+
+        String[] columns = {"Stage", "By", "Name", "Count", "p50", "p95", "p99", "Max", "Mean"};
+        List<Metrics.Row> shown = new ArrayList<>();
+        // Cells hold the raw numbers so the sorter compares them as numbers; the renderer adds the unit
+        DefaultTableModel tableModel = new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return column >= 3 ? Long.class : String.class;
+            }
+        };
+        JTable table = new JTable(tableModel);
+        table.setFont(UI_FONT);
+        table.setAutoCreateRowSorter(true);
+        table.setDefaultRenderer(Long.class, new DefaultTableCellRenderer() {
+            @Override
+            public Component getTableCellRendererComponent(JTable t, Object value, boolean selected, boolean focused, int row, int column) {
+                Metrics.Row metrics = shown.get(t.convertRowIndexToModel(row));
+                String text = t.convertColumnIndexToModel(column) == 3 ? value.toString() : Metrics.format(metrics, (Long) value);
+                super.getTableCellRendererComponent(t, text, selected, focused, row, column);
+                setHorizontalAlignment(SwingConstants.RIGHT);
+                return this;
+            }
+        });
+        Runnable refresh = () -> {
+            tableModel.setRowCount(0);
+            shown.clear();
+            shown.addAll(Metrics.snapshot());
+            for (Metrics.Row row : shown) {
+                tableModel.addRow(new Object[]{row.stage.label, row.dimension, row.name, row.count,
+                        row.p50, row.p95, row.p99, row.max, row.mean});
+            }
+        };
+        refresh.run();
+
+        JButton refreshButton = createStyledButton("Refresh");
+        refreshButton.addActionListener(e -> refresh.run());
+        JButton jsonButton = createStyledButton("Export JSON");
+        jsonButton.addActionListener(e -> exportStats(dialog, "devpilot-stats.json", Metrics.toJson(Metrics.snapshot())));
+        JButton csvButton = createStyledButton("Export CSV");
+        csvButton.addActionListener(e -> exportStats(dialog, "devpilot-stats.csv", Metrics.toCsv(Metrics.snapshot())));
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 10));
+        buttons.setBackground(COMPONENT_BG_COLOR);
+        buttons.add(refreshButton);
+        buttons.add(jsonButton);
+        buttons.add(csvButton);
+
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+        dialog.add(buttons, BorderLayout.SOUTH);
+        dialog.setVisible(true);
     }
 
-    private String toHex(Color color) {
-        return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+    private void exportStats(Component parent, String defaultName, String content) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(defaultName));
+        if (chooser.showSaveDialog(parent) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            Files.writeString(chooser.getSelectedFile().toPath(), content);
+        } catch (IOException ex) {
+            showErrorDialog("Could not export stats: " + ex.getMessage(), "Export Failed");
+        }
     }
 
     // New method to show history dialog (UI like Grok: Simple list of history entries)
     private void showHistoryDialog() {
-        if (history.isEmpty()) {
+        if (history.size() == 0) {
             showErrorDialog("No history available yet.", "History");
             return;
         }
@@ -400,63 +911,150 @@ public class PairProgrammer extends JFrame {
         historyDialog.setSize(800, 600);
         historyDialog.setLocationRelativeTo(this);
 
-        // Use JList for simple history display
-        DefaultListModel<String> listModel = new DefaultListModel<>();
-        for (int i = 0; i < history.size(); i++) {
-            HistoryEntry entry = history.get(i);
-            String summary = String.format("[%d] %s - %s (%s): %s...",
-                    i + 1, entry.timestamp.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")),
-                    entry.analysisType, entry.model, entry.code.substring(0, Math.min(50, entry.code.length())));
-            listModel.addElement(summary);
-        }
-
-        JList<String> historyList = new JList<>(listModel);
+        // Virtualized JList: rows are formatted only when painted, so opening cost doesn't grow with history size
+        JList<String> historyList = new JList<>(new HistoryListModel(history, null));
         historyList.setFont(UI_FONT);
         historyList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Fixed cell size means the list never measures every row to lay itself out
+        historyList.setPrototypeCellValue(HistoryListModel.PROTOTYPE_ROW);
+        historyList.setFixedCellHeight(22);
 
         // Double-click to view full entry
         historyList.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
                 if (e.getClickCount() == 2) {
-                    int index = historyList.getSelectedIndex();
-                    if (index >= 0) {
-                        HistoryEntry entry = history.get(index);
-                        JDialog detailDialog = new JDialog(historyDialog, "History Entry " + (index + 1), true);
-                        detailDialog.setSize(600, 400);
-                        detailDialog.setLocationRelativeTo(historyDialog);
-
-                        JTabbedPane tabs = new JTabbedPane();
-                        JEditorPane codePane = new JEditorPane();
-                        codePane.setText(entry.code);
-                        codePane.setEditable(false);
-                        codePane.setFont(CODE_FONT);
-
-                        JEditorPane responsePane = new JEditorPane();
-                        responsePane.setContentType("text/html");
-                        responsePane.setText(buildHtmlWrapper(entry.response));
-                        responsePane.setEditable(false);
-
-                        tabs.addTab("Input Code", new JScrollPane(codePane));
-                        tabs.addTab("AI Response", new JScrollPane(responsePane));
-
-                        JLabel infoLabel = new JLabel("Type: " + entry.analysisType + " | Model: " + entry.model + " | Time: " + entry.timestamp);
-                        infoLabel.setFont(UI_FONT);
-
-                        detailDialog.add(infoLabel, BorderLayout.NORTH);
-                        detailDialog.add(tabs, BorderLayout.CENTER);
-                        detailDialog.setVisible(true);
+                    int row = historyList.getSelectedIndex();
+                    if (row >= 0) {
+                        showHistoryDetailDialog(historyDialog, ((HistoryListModel) historyList.getModel()).entryIndexAt(row));
                     }
                 }
             }
         });
 
+        historyDialog.add(createHistorySearchPanel(historyList), BorderLayout.NORTH);
         JScrollPane scrollPane = new JScrollPane(historyList);
         historyDialog.add(scrollPane, BorderLayout.CENTER);
         historyDialog.setVisible(true);
     }
 
+    // Search bar for the history dialog: free text ("quoted phrases" allowed) plus type, model and time filters
+    private JPanel createHistorySearchPanel(JList<String> historyList) {
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 6));
+        searchPanel.setBackground(COMPONENT_BG_COLOR);
+
+        JTextField searchField = new JTextField(24);
+        searchField.setFont(UI_FONT);
+        JComboBox<String> typeFilter = createStyledComboBox(prepend("All Types", AnalysisPipeline.ANALYSIS_TYPES));
+        JComboBox<String> modelFilter = createStyledComboBox(prepend("All Models", AnalysisPipeline.MODELS));
+        JComboBox<String> timeFilter = createStyledComboBox(new String[]{"Any Time", "Last 24 Hours", "Last 7 Days", "Last 30 Days"});
+        JButton searchButton = createStyledButton("Search");
+        JLabel resultLabel = createStyledLabel("");
+
+        Runnable runSearch = () -> {
+            long[] rangeDays = {0, 1, 7, 30};
+            long days = rangeDays[timeFilter.getSelectedIndex()];
+            long from = days == 0 ? Long.MIN_VALUE : System.currentTimeMillis() - Duration.ofDays(days).toMillis();
+            HistoryIndex.Query query = new HistoryIndex.Query(searchField.getText().strip(),
+                    typeFilter.getSelectedIndex() == 0 ? null : (String) typeFilter.getSelectedItem(),
+                    modelFilter.getSelectedIndex() == 0 ? null : (String) modelFilter.getSelectedItem(),
+                    from, Long.MAX_VALUE);
+            boolean unfiltered = query.text.isEmpty() && query.analysisType == null && query.model == null && days == 0;
+            long startNanos = System.nanoTime();
+
+            new SwingWorker<int[], Void>() {
+                @Override
+                protected int[] doInBackground() {
+                    return unfiltered ? null : historyIndex.search(query, 500);
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        int[] ids = get();
+                        historyList.setModel(new HistoryListModel(history, ids));
+                        resultLabel.setText(ids == null ? "" : ids.length + " results in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
+                    } catch (InterruptedException | ExecutionException ex) {
+                        resultLabel.setText("Search failed: " + ex.getCause().getMessage());
+                    }
+                }
+            }.execute();
+        };
+        searchField.addActionListener(e -> runSearch.run());
+        searchButton.addActionListener(e -> runSearch.run());
+
+        searchPanel.add(searchField);
+        searchPanel.add(typeFilter);
+        searchPanel.add(modelFilter);
+        searchPanel.add(timeFilter);
+        searchPanel.add(searchButton);
+        searchPanel.add(resultLabel);
+        return searchPanel;
+    }
+
+    private static String[] prepend(String first, String[] rest) {
+        String[] items = new String[rest.length + 1];
+        items[0] = first;
+        System.arraycopy(rest, 0, items, 1, rest.length);
+        return items;
+    }
+
+    private void showHistoryDetailDialog(JDialog owner, int index) {
+        HistoryEntry entry = history.get(index);
+        JDialog detailDialog = new JDialog(owner, "History Entry " + (index + 1), true);
+        detailDialog.setSize(600, 400);
+        detailDialog.setLocationRelativeTo(owner);
+
+        JTabbedPane tabs = new JTabbedPane();
+        JEditorPane codePane = new JEditorPane();
+        codePane.setText("Loading...");
+        codePane.setEditable(false);
+        codePane.setFont(CODE_FONT);
+
+        JEditorPane responsePane = new JEditorPane();
+        responsePane.setEditorKit(htmlRenderer().newEditorKit());
+        responsePane.setText(buildHtmlWrapper("Loading..."));
+        responsePane.setEditable(false);
+        // The lazy body view leaves the page margin and background to the pane
+        responsePane.setBackground(TEXT_AREA_BG_COLOR);
+        responsePane.setMargin(new Insets(10, 10, 10, 10));
+
+        tabs.addTab("Input Code", new JScrollPane(codePane));
+        tabs.addTab("AI Response", new JScrollPane(responsePane));
+
+        JLabel infoLabel = new JLabel("Type: " + entry.analysisType + " | Model: " + entry.model + " | Time: " + entry.timestamp);
+        infoLabel.setFont(UI_FONT);
+
+        detailDialog.add(infoLabel, BorderLayout.NORTH);
+        detailDialog.add(tabs, BorderLayout.CENTER);
+
+        // Read the bodies from the history log and parse the HTML off the EDT; the dialog opens immediately
+        new SwingWorker<Object[], Void>() {
+            @Override
+            protected Object[] doInBackground() {
+                return new Object[]{entry.code(), htmlRenderer().renderHistory(index, entry.response())};
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    Object[] bodies = get();
+                    codePane.setText((String) bodies[0]);
+                    codePane.setCaretPosition(0);
+                    responsePane.setDocument((HTMLDocument) bodies[1]);
+                    responsePane.setCaretPosition(0);
+                } catch (InterruptedException | ExecutionException ex) {
+                    codePane.setText("Could not load entry: " + ex.getCause().getMessage());
+                }
+            }
+        }.execute();
+        detailDialog.setVisible(true);
+        // Detach the cached document so it does not keep this pane's views and listeners alive
+        responsePane.setDocument(responsePane.getEditorKit().createDefaultDocument());
+    }
+
     public static void main(String[] args) {
+        Startup.begin();
         // Set FlatLaf Light Look and Feel
         try {
             UIManager.setLookAndFeel(new FlatLightLaf());
@@ -467,9 +1065,371 @@ public class PairProgrammer extends JFrame {
         UIManager.put("Panel.background", BG_COLOR);
         UIManager.put("SplitPane.background", BG_COLOR);
         UIManager.put("SplitPaneDivider.background", BG_COLOR);
+        // The HTTP client and history index are warmed up after the first paint (see warmUp)
         SwingUtilities.invokeLater(() -> new PairProgrammer().setVisible(true));
     }
 
+    // Identifies the analyses that can share a run. Snapshots compare by identity: an unedited editor hands
+    // out the same table again, and comparing texts would mean reading the whole file on the EDT
+    private record JobKey(PieceTable code, String analysisType, List<String> candidates, int raceMode,
+                          String compaction, boolean incremental, boolean splitLargeFiles, boolean bypassCache) {
+    }
+
+    // Options of one analysis, captured on the EDT when Analyze is pressed
+    private static final class AnalysisRequest {
+        final PieceTable code;
+        final String analysisType;
+        final String model;
+        // The selected model alone, or every model asked in a race or hedge
+        final List<String> candidates;
+        final int raceMode;
+        final boolean streaming;
+        final boolean bypassCache;
+        final boolean splitLargeFiles;
+        final boolean incremental;
+        final boolean compact;
+
+        AnalysisRequest(PieceTable code, String analysisType, String model, List<String> candidates, int raceMode,
+                        boolean streaming, boolean bypassCache, boolean splitLargeFiles, boolean incremental, boolean compact) {
+            this.code = code;
+            this.analysisType = analysisType;
+            this.model = model;
+            this.candidates = candidates;
+            this.raceMode = raceMode;
+            this.streaming = streaming;
+            this.bypassCache = bypassCache;
+            this.splitLargeFiles = splitLargeFiles;
+            this.incremental = incremental;
+            this.compact = compact;
+        }
+    }
+
+    // What a finished analysis hands to the EDT; filled in on the job thread, read once the job is done
+    private static final class Analysis {
+        // Model whose answer is shown; differs from the selection when another model wins a race
+        String answeredBy;
+        boolean cacheHit;
+        long raceMillis = -1;
+        // Set when only the changes since the last analysis of this type were sent
+        IncrementalAnalyzer.Plan plan;
+        // What the compaction stage sent in place of the editor text, when it ran
+        PromptCompactor.Result compacted;
+        // History entry of the answer; its parsed document waits in the renderer's cache for the EDT to swap it in
+        int historyIndex = -1;
+        long parseNanos;
+
+        Analysis(String model) {
+            this.answeredBy = model;
+        }
+
+        // True when compaction had to cut the code to fit a context window
+        boolean truncated() {
+            return compacted != null && compacted.omittedFromLine > 0;
+        }
+
+        String summary(long millis) {
+            if (cacheHit) {
+                return "Cached (" + millis + " ms)";
+            }
+            if (raceMillis >= 0) {
+                return answeredBy + " won (" + raceMillis + " ms)";
+            }
+            if (plan != null) {
+                return "Sent " + plan.editedLines + " changed lines (" + plan.prompt.length() * 100L / plan.fullPromptLength + "% of full prompt)";
+            }
+            return "Done (" + millis + " ms)";
+        }
+    }
+
+    // A job's row in the jobs panel and its result tab (EDT only)
+    private final class JobView {
+        final JobQueue.Job<Analysis> job;
+        final String analysisType;
+        final JEditorPane pane;
+        final JScrollPane tab;
+        String status = "Queued";
+        long elapsedMillis = -1;
+        boolean finished;
+        // Streamed output length last shown in the pane
+        private int shownOutput;
+        // History entry whose document the pane shows once the job is done
+        int historyIndex = -1;
+        // Evicted from the renderer's cache while on screen: let go of it once the tab is hidden
+        private boolean evicted;
+        // The pane no longer holds the answer's document; it is parsed again when the tab is shown
+        private boolean released;
+
+        JobView(JobQueue.Job<Analysis> job, String analysisType, JEditorPane pane) {
+            this.job = job;
+            this.analysisType = analysisType;
+            this.pane = pane;
+            this.tab = new JScrollPane(pane);
+            tab.setBorder(null);
+            tab.getVerticalScrollBar().setUI(new CustomScrollBarUI());
+            tab.putClientProperty(JobView.class, this);
+        }
+
+        void update() {
+            JobQueue.State state = job.state();
+            if (job.isFinished()) {
+                finish(state);
+                return;
+            }
+            if (state == JobQueue.State.QUEUED) {
+                status = "Queued";
+                return;
+            }
+            int length = job.outputLength();
+            if (length != shownOutput) {
+                appendOutput();
+            }
+            int total = job.partsTotal();
+            if (total > 0) {
+                int done = job.partsDone();
+                status = done < total ? "Analyzed " + done + "/" + total + " parts" : "Merging " + total + " parts...";
+            } else if (length > 0) {
+                status = "Receiving... " + length + " chars";
+            } else {
+                status = job.status();
+            }
+        }
+
+        // Output that arrived since the last EDT pass is parsed and added to the end of the body, so each
+        // pass costs as much as the new text rather than the whole answer. Markup that spans batches is
+        // only approximated here; the finished answer replaces it with a document parsed off the EDT
+        private void appendOutput() {
+            String added = job.outputFrom(shownOutput);
+            int end = completeMarkupEnd(added);
+            if (end == 0) {
+                return;
+            }
+            if (shownOutput == 0) {
+                // Clears the "Analyzing..." placeholder
+                pane.setText(buildHtmlWrapper(""));
+            }
+            HTMLDocument document = (HTMLDocument) pane.getDocument();
+            Element body = document.getElement(document.getDefaultRootElement(), StyleConstants.NameAttribute, HTML.Tag.BODY);
+            try {
+                document.insertBeforeEnd(body, added.substring(0, end));
+            } catch (BadLocationException | IOException ex) {
+                pane.setText(buildHtmlWrapper(job.output()));
+            }
+            shownOutput += end;
+        }
+
+        private void finish(JobQueue.State state) {
+            finished = true;
+            elapsedMillis = (System.nanoTime() - job.submittedNanos) / 1_000_000;
+            if (state == JobQueue.State.DONE) {
+                Analysis analysis = job.result();
+                historyIndex = analysis.historyIndex;
+                long swapStart = System.nanoTime();
+                HTMLDocument rendered = htmlRenderer().cached(historyIndex);
+                if (rendered != null) {
+                    pane.setDocument(rendered);
+                    Metrics.record(Metrics.Stage.RENDER, analysis.answeredBy, analysisType, analysis.parseNanos + System.nanoTime() - swapStart);
+                } else {
+                    // Evicted before the EDT got to it
+                    reload();
+                }
+                status = analysis.summary(elapsedMillis);
+                updateCacheStatsLabel();
+                updatePromptStatsLabel(analysis.compacted);
+            } else if (state == JobQueue.State.FAILED) {
+                status = "API Error: " + job.error().getMessage();
+                pane.setText(buildHtmlWrapper(status));
+            } else {
+                status = "Stopped";
+                pane.setText(buildHtmlWrapper(job.output() + "<p><i>Stopped.</i></p>"));
+            }
+            if (job.isShared()) {
+                status += " (shared)";
+            }
+            pane.setCaretPosition(0);
+            lastJobSummary = "#" + job.id + " " + status;
+        }
+
+        void documentEvicted(boolean onScreen) {
+            if (onScreen) {
+                evicted = true;
+            } else {
+                release();
+            }
+        }
+
+        void hidden() {
+            if (evicted) {
+                release();
+            }
+        }
+
+        void shown() {
+            if (released) {
+                reload();
+            }
+        }
+
+        private void release() {
+            evicted = false;
+            if (!released) {
+                released = true;
+                pane.setDocument(pane.getEditorKit().createDefaultDocument());
+            }
+        }
+
+        // Parses the answer again from history, off the EDT, and puts it back in the cache
+        private void reload() {
+            released = false;
+            pane.setText(buildHtmlWrapper("Loading..."));
+            int index = historyIndex;
+            new SwingWorker<HTMLDocument, Void>() {
+                @Override
+                protected HTMLDocument doInBackground() {
+                    return htmlRenderer().renderHistory(index, history.get(index).response());
+                }
+
+                @Override
+                protected void done() {
+                    if (released) {
+                        // Hidden and evicted again while this was parsing
+                        return;
+                    }
+                    try {
+                        pane.setDocument(get());
+                        pane.setCaretPosition(0);
+                    } catch (InterruptedException | ExecutionException ex) {
+                        pane.setText(buildHtmlWrapper("Could not load the answer: " + ex.getCause().getMessage()));
+                    }
+                }
+            }.execute();
+        }
+    }
+
+    // End of the text that is safe to parse now: an unfinished tag or entity at the end waits for the next batch
+    private static int completeMarkupEnd(String text) {
+        int tagStart = text.lastIndexOf('<');
+        int end = tagStart > text.lastIndexOf('>') ? tagStart : text.length();
+        int entityStart = text.lastIndexOf('&', end - 1);
+        if (entityStart >= 0 && end - entityStart <= 10 && text.lastIndexOf(';', end - 1) < entityStart) {
+            end = entityStart;
+        }
+        return end;
+    }
+
+    private final class JobTableModel extends AbstractTableModel {
+        private final String[] columns = {"Job", "Progress", "Time"};
+        private final List<JobView> rows = new ArrayList<>();
+
+        JobView viewAt(int row) {
+            return rows.get(row);
+        }
+
+        void add(JobView view) {
+            rows.add(view);
+            fireTableRowsInserted(rows.size() - 1, rows.size() - 1);
+        }
+
+        void changed(JobView view) {
+            int row = rows.indexOf(view);
+            if (row >= 0) {
+                fireTableRowsUpdated(row, row);
+            }
+        }
+
+        // Finished jobs leave the panel; their result tabs stay open until closed
+        void removeFinished() {
+            rows.removeIf(view -> view.finished && jobViews.remove(view.job) != null);
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            JobView view = rows.get(row);
+            switch (column) {
+                case 0:
+                    return "#" + view.job.id + " " + view.job.title;
+                case 1:
+                    return view;
+                default:
+                    return view.elapsedMillis < 0 ? "" : view.elapsedMillis + " ms";
+            }
+        }
+    }
+
+    // Progress column: parts done for a split analysis, full once finished, with the job's status as text
+    static class JobProgressRenderer extends JProgressBar implements TableCellRenderer {
+        JobProgressRenderer() {
+            setStringPainted(true);
+            setFont(UI_FONT);
+            setForeground(ACCENT_COLOR_BLUE);
+            setBorderPainted(false);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+            JobView view = (JobView) value;
+            int total = view.job.partsTotal();
+            setMaximum(Math.max(total, 1));
+            setValue(view.finished ? getMaximum() : view.job.partsDone());
+            setString(view.status);
+            return this;
+        }
+    }
+
+    // DSA: List model over the history store (or a list of search hits); summaries are built per visible row instead of up front
+    static class HistoryListModel extends AbstractListModel<String> {
+        static final String PROTOTYPE_ROW = "[00000] 0000-00-00 00:00:00 - Generate Unit Tests (nvidia/nemotron-nano-9b-v2:free): "
+                + "x".repeat(50) + "...";
+        private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+        private final HistoryStore store;
+        private final int[] ids;
+        private final int size;
+
+        // ids: entry indexes to show in order, or null for the whole store
+        HistoryListModel(HistoryStore store, int[] ids) {
+            this.store = store;
+            this.ids = ids;
+            this.size = ids == null ? store.size() : ids.length;
+        }
+
+        int entryIndexAt(int row) {
+            return ids == null ? row : ids[row];
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String getElementAt(int row) {
+            int index = entryIndexAt(row);
+            HistoryEntry entry = store.get(index);
+            return new StringBuilder(160)
+                    .append('[').append(index + 1).append("] ")
+                    .append(TIME_FORMAT.format(entry.timestamp)).append(" - ")
+                    .append(entry.analysisType).append(" (").append(entry.model).append("): ")
+                    .append(entry.codePrefix(50).replace('\n', ' ')).append("...")
+                    .toString();
+        }
+    }
+
     static class CustomScrollBarUI extends BasicScrollBarUI {
         @Override
         protected void configureScrollBarColors() {
@@ -488,21 +1448,4 @@ public class PairProgrammer extends JFrame {
             return jbutton;
         }
     }
-
-    // DSA: Custom class for history entries
-    public static class HistoryEntry {
-        final String code;
-        final String analysisType;
-        final String model;
-        final String response;
-        final LocalDateTime timestamp;
-
-        HistoryEntry(String code, String analysisType, String model, String response) {
-            this.code = code;
-            this.analysisType = analysisType;
-            this.model = model;
-            this.response = response;
-            this.timestamp = LocalDateTime.now();
-        }
-    }
 }
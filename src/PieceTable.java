@@ -0,0 +1,413 @@
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable text for the code editor: a piece table over an append-only buffer, with the pieces in a
+ * persistent balanced tree that also counts line breaks.
+ *
+ * An edit appends the inserted text to the buffer and returns a new table that shares all but the
+ * changed path of the tree, so edits, offset lookups and line lookups are O(log n) and any table is a
+ * zero-copy snapshot: the editor can hand its current table to a background thread as a CharSequence
+ * while the user keeps typing. The buffer records where its line breaks are, so finding a line never
+ * scans a piece.
+ *
+ * Edits must come from one thread at a time (the document's writer); reading is safe from any thread.
+ */
+public final class PieceTable implements CharSequence {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final Buffer buffer;
+    // The buffer's storage as of this table; fields written later are never read through it
+    private final char[][] chars;
+    private final int[][] breaks;
+    private final int breakCount;
+    private final Node root;
+
+    // Piece that served the last charAt, so sequential reads skip the tree walk; racy but immutable
+    private Run run;
+    private String string;
+
+    /** An empty table with a buffer of its own. */
+    public PieceTable() {
+        this(new Buffer(), null);
+    }
+
+    public static PieceTable of(CharSequence text) {
+        return new PieceTable().insert(0, text);
+    }
+
+    // Captures the buffer's current storage; only the writer thread calls this
+    private PieceTable(Buffer buffer, Node root) {
+        this.buffer = buffer;
+        this.chars = buffer.chars;
+        this.breaks = buffer.breaks;
+        this.breakCount = buffer.breakCount;
+        this.root = root;
+    }
+
+    private PieceTable(PieceTable storage, Node root) {
+        this.buffer = storage.buffer;
+        this.chars = storage.chars;
+        this.breaks = storage.breaks;
+        this.breakCount = storage.breakCount;
+        this.root = root;
+    }
+
+    public PieceTable insert(int offset, CharSequence text) {
+        Objects.checkIndex(offset, length() + 1);
+        int added = text.length();
+        if (added == 0) {
+            return this;
+        }
+        int start = buffer.length;
+        buffer.append(text);
+        PieceTable grown = new PieceTable(buffer, root);
+        Node[] parts = grown.split(root, offset);
+        // Typing extends the piece it continues instead of adding one per keystroke
+        Node left = grown.extendLast(parts[0], start, added);
+        if (left == null) {
+            left = merge(parts[0], grown.piece(start, added, ThreadLocalRandom.current().nextInt(), null, null));
+        }
+        return new PieceTable(grown, merge(left, parts[1]));
+    }
+
+    public PieceTable delete(int offset, int count) {
+        Objects.checkFromIndexSize(offset, count, length());
+        if (count == 0) {
+            return this;
+        }
+        if (count == length()) {
+            // Start over with a fresh buffer so replaced text does not stay reachable
+            return new PieceTable();
+        }
+        Node[] head = split(root, offset);
+        Node[] tail = split(head[1], count);
+        return new PieceTable(this, merge(head[0], tail[1]));
+    }
+
+    @Override
+    public int length() {
+        return root == null ? 0 : root.size;
+    }
+
+    @Override
+    public char charAt(int index) {
+        Run r = run;
+        if (r == null || index < r.from || index >= r.to) {
+            Objects.checkIndex(index, length());
+            r = locate(index);
+            run = r;
+        }
+        return charAtBuffer(r.start + index - r.from);
+    }
+
+    @Override
+    public PieceTable subSequence(int start, int end) {
+        Objects.checkFromToIndex(start, end, length());
+        Node[] head = split(root, start);
+        Node[] middle = split(head[1], end - start);
+        return new PieceTable(this, middle[0]);
+    }
+
+    /** Copies chars [srcBegin, srcEnd) into dst, like {@link String#getChars}. */
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        Objects.checkFromToIndex(srcBegin, srcEnd, length());
+        Objects.checkFromIndexSize(dstBegin, srcEnd - srcBegin, dst.length);
+        copy(root, 0, srcBegin, srcEnd, dst, dstBegin - srcBegin);
+    }
+
+    /**
+     * Points `into` at chars from `index` on, without copying: as many as are stored together in one
+     * array, up to `max`. The array is shared with the table and must not be written.
+     */
+    public void slice(int index, int max, Segment into) {
+        Objects.checkFromIndexSize(index, max, length());
+        Run r = run;
+        if (r == null || index < r.from || index >= r.to) {
+            r = locate(index);
+            run = r;
+        }
+        int position = r.start + index - r.from;
+        into.array = chars[position >>> CHUNK_BITS];
+        into.offset = position & CHUNK_MASK;
+        into.count = Math.min(max, Math.min(r.to - index, CHUNK_SIZE - into.offset));
+    }
+
+    @Override
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            char[] all = new char[length()];
+            copy(root, 0, 0, all.length, all, 0);
+            s = new String(all);
+            string = s;
+        }
+        return s;
+    }
+
+    /** Number of lines; text without a line break is one line, and so is empty text. */
+    public int lineCount() {
+        return lines(root) + 1;
+    }
+
+    /** Offset of the first char of a line (0-based). */
+    public int lineStart(int line) {
+        Objects.checkIndex(line, lineCount());
+        if (line == 0) {
+            return 0;
+        }
+        // Find the line-th '\n' (1-based)
+        int k = line;
+        int base = 0;
+        Node n = root;
+        while (true) {
+            int leftLines = lines(n.left);
+            if (k <= leftLines) {
+                n = n.left;
+                continue;
+            }
+            k -= leftLines;
+            base += size(n.left);
+            if (k <= n.breaks) {
+                int position = breakAt(lowerBound(n.start) + k - 1);
+                return base + position - n.start + 1;
+            }
+            k -= n.breaks;
+            base += n.length;
+            n = n.right;
+        }
+    }
+
+    /** Line (0-based) containing the offset; the length itself belongs to the last line. */
+    public int lineOfOffset(int offset) {
+        Objects.checkIndex(offset, length() + 1);
+        int count = 0;
+        int base = 0;
+        Node n = root;
+        while (n != null) {
+            int leftSize = size(n.left);
+            if (offset < base + leftSize) {
+                n = n.left;
+                continue;
+            }
+            count += lines(n.left);
+            int inPiece = offset - base - leftSize;
+            if (inPiece <= n.length) {
+                return count + lowerBound(n.start + inPiece) - lowerBound(n.start);
+            }
+            count += n.breaks;
+            base += leftSize + n.length;
+            n = n.right;
+        }
+        return count;
+    }
+
+    private char charAtBuffer(int position) {
+        return chars[position >>> CHUNK_BITS][position & CHUNK_MASK];
+    }
+
+    private Run locate(int index) {
+        int base = 0;
+        Node n = root;
+        while (true) {
+            int leftSize = size(n.left);
+            if (index < base + leftSize) {
+                n = n.left;
+            } else if (index < base + leftSize + n.length) {
+                return new Run(base + leftSize, base + leftSize + n.length, n.start);
+            } else {
+                base += leftSize + n.length;
+                n = n.right;
+            }
+        }
+    }
+
+    // In-order copy of the part of the subtree (starting at offset base) that overlaps [from, to)
+    private void copy(Node n, int base, int from, int to, char[] dst, int shift) {
+        if (n == null || from >= base + n.size || to <= base) {
+            return;
+        }
+        copy(n.left, base, from, to, dst, shift);
+        int pieceFrom = base + size(n.left);
+        int a = Math.max(from, pieceFrom);
+        int b = Math.min(to, pieceFrom + n.length);
+        int position = n.start + a - pieceFrom;
+        int at = a + shift;
+        while (a < b) {
+            int inChunk = Math.min(b - a, CHUNK_SIZE - (position & CHUNK_MASK));
+            System.arraycopy(chars[position >>> CHUNK_BITS], position & CHUNK_MASK, dst, at, inChunk);
+            a += inChunk;
+            position += inChunk;
+            at += inChunk;
+        }
+        copy(n.right, pieceFrom + n.length, from, to, dst, shift);
+    }
+
+    // Index of the first line break at or after a buffer position
+    private int lowerBound(int position) {
+        int lo = 0;
+        int hi = breakCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (breakAt(mid) < position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int breakAt(int index) {
+        return breaks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    private Node piece(int start, int length, int priority, Node left, Node right) {
+        return new Node(start, length, lowerBound(start + length) - lowerBound(start), priority, left, right);
+    }
+
+    // DSA: treap split; the left tree holds the first `offset` chars. Path copying keeps the input intact
+    private Node[] split(Node n, int offset) {
+        if (n == null) {
+            return new Node[2];
+        }
+        int leftSize = size(n.left);
+        if (offset <= leftSize) {
+            Node[] parts = split(n.left, offset);
+            parts[1] = n.with(parts[1], n.right);
+            return parts;
+        }
+        int inPiece = offset - leftSize;
+        if (inPiece >= n.length) {
+            Node[] parts = split(n.right, inPiece - n.length);
+            parts[0] = n.with(n.left, parts[0]);
+            return parts;
+        }
+        // The cut falls inside this piece; both halves keep its priority, so the heap order holds
+        return new Node[]{
+                piece(n.start, inPiece, n.priority, n.left, null),
+                piece(n.start + inPiece, n.length - inPiece, n.priority, null, n.right)};
+    }
+
+    // DSA: treap merge; every char of a comes before every char of b
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            return a.with(a.left, merge(a.right, b));
+        }
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    // The tree with its last piece grown by `added` chars, or null if that piece does not end at bufferEnd
+    private Node extendLast(Node n, int bufferEnd, int added) {
+        if (n == null) {
+            return null;
+        }
+        if (n.right != null) {
+            Node right = extendLast(n.right, bufferEnd, added);
+            return right == null ? null : n.with(n.left, right);
+        }
+        if (n.start + n.length != bufferEnd) {
+            return null;
+        }
+        return piece(n.start, n.length + added, n.priority, n.left, null);
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static int lines(Node n) {
+        return n == null ? 0 : n.lines;
+    }
+
+    private static final class Node {
+        final int start;
+        final int length;
+        final int breaks;
+        final int priority;
+        final Node left;
+        final Node right;
+        // Chars and line breaks in this subtree
+        final int size;
+        final int lines;
+
+        Node(int start, int length, int breaks, int priority, Node left, Node right) {
+            this.start = start;
+            this.length = length;
+            this.breaks = breaks;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+            this.lines = lines(left) + breaks + lines(right);
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(start, length, breaks, priority, left, right);
+        }
+    }
+
+    // Table offsets [from, to) are buffer positions start..
+    private static final class Run {
+        final int from;
+        final int to;
+        final int start;
+
+        Run(int from, int to, int start) {
+            this.from = from;
+            this.to = to;
+            this.start = start;
+        }
+    }
+
+    // DSA: append-only storage in fixed-size chunks, so nothing moves once written and older tables
+    // keep reading the chunks they were built over while text is appended
+    private static final class Buffer {
+        char[][] chars = new char[4][];
+        int length;
+        // Ascending positions of every '\n' in the buffer
+        int[][] breaks = new int[4][];
+        int breakCount;
+
+        void append(CharSequence text) {
+            for (int i = 0, n = text.length(); i < n; i++) {
+                char c = text.charAt(i);
+                int chunk = length >>> CHUNK_BITS;
+                if (chunk == chars.length) {
+                    chars = Arrays.copyOf(chars, chunk * 2);
+                }
+                if (chars[chunk] == null) {
+                    chars[chunk] = new char[CHUNK_SIZE];
+                }
+                chars[chunk][length & CHUNK_MASK] = c;
+                if (c == '\n') {
+                    addBreak(length);
+                }
+                length++;
+            }
+        }
+
+        private void addBreak(int position) {
+            int chunk = breakCount >>> CHUNK_BITS;
+            if (chunk == breaks.length) {
+                breaks = Arrays.copyOf(breaks, chunk * 2);
+            }
+            if (breaks[chunk] == null) {
+                breaks[chunk] = new int[CHUNK_SIZE];
+            }
+            breaks[chunk][breakCount & CHUNK_MASK] = position;
+            breakCount++;
+        }
+    }
+}
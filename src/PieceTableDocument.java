@@ -0,0 +1,422 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Plain-text document for the code input, stored in a {@link PieceTable}.
+ *
+ * Lines are not kept as element objects with positions the way PlainDocument keeps them: the root
+ * element answers line queries from the table's line index, so neither a 50k-line paste nor a
+ * keystroke rebuilds a per-line structure. {@link #snapshot} returns the current text without
+ * copying it; the table stays valid after later edits, so it can be read on any thread.
+ */
+public final class PieceTableDocument extends AbstractDocument {
+
+    private final Element lineMap = new LineMap();
+
+    public PieceTableDocument() {
+        super(new TableContent());
+        putProperty(PlainDocument.tabSizeAttribute, 8);
+    }
+
+    /** The current text. No lock is needed: tables are immutable and edits swap in a new one. */
+    public PieceTable snapshot() {
+        return ((TableContent) getContent()).text;
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return lineMap;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return lineMap.getElement(lineMap.getElementIndex(pos));
+    }
+
+    // Reports the lines an insert split, after the text is in
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        PieceTable text = snapshot();
+        int first = text.lineOfOffset(chng.getOffset());
+        int last = text.lineOfOffset(chng.getOffset() + chng.getLength());
+        if (last > first) {
+            Element[] removed = {new Line(text.lineStart(first), lineEnd(text, last) - chng.getLength())};
+            Element[] added = new Element[last - first + 1];
+            for (int i = 0; i < added.length; i++) {
+                added[i] = line(text, first + i);
+            }
+            chng.addEdit(new LineChange(first, removed, added));
+        }
+        super.insertUpdate(chng, attr);
+    }
+
+    // Reports the lines a removal joins, before the text is removed
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        PieceTable text = snapshot();
+        int first = text.lineOfOffset(chng.getOffset());
+        int last = text.lineOfOffset(chng.getOffset() + chng.getLength());
+        if (last > first) {
+            Element[] removed = new Element[last - first + 1];
+            for (int i = 0; i < removed.length; i++) {
+                removed[i] = line(text, first + i);
+            }
+            Element[] added = {new Line(text.lineStart(first), lineEnd(text, last) - chng.getLength())};
+            chng.addEdit(new LineChange(first, removed, added));
+        }
+        super.removeUpdate(chng);
+    }
+
+    private Line line(PieceTable text, int index) {
+        return new Line(text.lineStart(index), lineEnd(text, index));
+    }
+
+    // End offset of a line element: the next line's start, or past the implied newline for the last line
+    private static int lineEnd(PieceTable text, int index) {
+        return index + 1 < text.lineCount() ? text.lineStart(index + 1) : text.length() + 1;
+    }
+
+    // ElementEdit's undo assumes a BranchElement; this one only swaps what it reports
+    private final class LineChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+        private final int index;
+        private Element[] removed;
+        private Element[] added;
+
+        LineChange(int index, Element[] removed, Element[] added) {
+            this.index = index;
+            this.removed = removed;
+            this.added = added;
+        }
+
+        @Override
+        public Element getElement() {
+            return lineMap;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            return removed;
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            return added;
+        }
+
+        @Override
+        public void undo() {
+            super.undo();
+            swap();
+        }
+
+        @Override
+        public void redo() {
+            super.redo();
+            swap();
+        }
+
+        private void swap() {
+            Element[] was = removed;
+            removed = added;
+            added = was;
+        }
+    }
+
+    // Root element; its children are made on request from the line index
+    private final class LineMap implements Element {
+        @Override
+        public Document getDocument() {
+            return PieceTableDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            PieceTable text = snapshot();
+            return text.lineOfOffset(Math.max(0, Math.min(offset, text.length())));
+        }
+
+        @Override
+        public int getElementCount() {
+            return snapshot().lineCount();
+        }
+
+        @Override
+        public Element getElement(int index) {
+            PieceTable text = snapshot();
+            return index >= 0 && index < text.lineCount() ? line(text, index) : null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    // One line, including its newline; offsets are fixed when it is created
+    private final class Line implements Element {
+        private final int start;
+        private final int end;
+
+        Line(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Document getDocument() {
+            return PieceTableDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return lineMap;
+        }
+
+        @Override
+        public String getName() {
+            return ContentElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return start;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return end;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+
+    /**
+     * Content over a piece table plus the newline every Swing content model ends with. Undo swaps the
+     * previous table back in, which costs nothing since tables are immutable.
+     */
+    private static final class TableContent implements AbstractDocument.Content {
+        // The implied newline after the text, for partial returns that reach it
+        private static final char[] NEWLINE = {'\n'};
+
+        volatile PieceTable text = new PieceTable();
+        // Positions handed out (the caret, highlights); few enough to update one by one
+        private final List<WeakReference<Mark>> marks = new ArrayList<>();
+
+        @Override
+        public Position createPosition(int offset) throws BadLocationException {
+            if (offset < 0 || offset > length()) {
+                throw new BadLocationException("Invalid position", offset);
+            }
+            Mark mark = new Mark(offset);
+            marks.add(new WeakReference<>(mark));
+            return mark;
+        }
+
+        @Override
+        public int length() {
+            return text.length() + 1;
+        }
+
+        @Override
+        public UndoableEdit insertString(int where, String str) throws BadLocationException {
+            if (where < 0 || where > text.length()) {
+                throw new BadLocationException("Invalid insert", where);
+            }
+            PieceTable before = text;
+            text = before.insert(where, str);
+            updateMarksForInsert(where, str.length());
+            return new Edit(before, text, where, str.length(), true);
+        }
+
+        @Override
+        public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+            if (where < 0 || nitems < 0 || where + nitems > text.length()) {
+                throw new BadLocationException("Invalid remove", where + nitems);
+            }
+            PieceTable before = text;
+            text = before.delete(where, nitems);
+            updateMarksForRemove(where, nitems);
+            return new Edit(before, text, where, nitems, false);
+        }
+
+        @Override
+        public String getString(int where, int len) throws BadLocationException {
+            Segment segment = new Segment();
+            getChars(where, len, segment);
+            return new String(segment.array, segment.offset, segment.count);
+        }
+
+        @Override
+        public void getChars(int where, int len, Segment txt) throws BadLocationException {
+            PieceTable current = text;
+            if (where < 0 || len < 0 || where + len > current.length() + 1) {
+                throw new BadLocationException("Invalid range", where + len);
+            }
+            int inText = Math.max(0, Math.min(len, current.length() - where));
+            // A caller that takes partial returns reads in place, one stored run at a time
+            if (txt.isPartialReturn() && len > 0) {
+                if (inText > 0) {
+                    current.slice(where, inText, txt);
+                } else {
+                    txt.array = NEWLINE;
+                    txt.offset = 0;
+                    txt.count = 1;
+                }
+                return;
+            }
+            char[] chars = new char[len];
+            current.getChars(where, where + inText, chars, 0);
+            if (inText < len) {
+                chars[len - 1] = '\n';
+            }
+            txt.array = chars;
+            txt.offset = 0;
+            txt.count = len;
+        }
+
+        // Same rules as StringContent: a mark at 0 stays put, marks at or after the insert move
+        private void updateMarksForInsert(int offset, int length) {
+            int from = offset == 0 ? 1 : offset;
+            for (Iterator<WeakReference<Mark>> it = marks.iterator(); it.hasNext(); ) {
+                Mark mark = it.next().get();
+                if (mark == null) {
+                    it.remove();
+                } else if (mark.offset >= from) {
+                    mark.offset += length;
+                }
+            }
+        }
+
+        private void updateMarksForRemove(int offset, int length) {
+            int end = offset + length;
+            for (Iterator<WeakReference<Mark>> it = marks.iterator(); it.hasNext(); ) {
+                Mark mark = it.next().get();
+                if (mark == null) {
+                    it.remove();
+                } else if (mark.offset >= end) {
+                    mark.offset -= length;
+                } else if (mark.offset >= offset) {
+                    mark.offset = offset;
+                }
+            }
+        }
+
+        private final class Edit extends AbstractUndoableEdit {
+            private final PieceTable before;
+            private final PieceTable after;
+            private final int offset;
+            private final int length;
+            private final boolean insert;
+
+            Edit(PieceTable before, PieceTable after, int offset, int length, boolean insert) {
+                this.before = before;
+                this.after = after;
+                this.offset = offset;
+                this.length = length;
+                this.insert = insert;
+            }
+
+            @Override
+            public void undo() {
+                super.undo();
+                text = before;
+                if (insert) {
+                    updateMarksForRemove(offset, length);
+                } else {
+                    updateMarksForInsert(offset, length);
+                }
+            }
+
+            @Override
+            public void redo() {
+                super.redo();
+                text = after;
+                if (insert) {
+                    updateMarksForInsert(offset, length);
+                } else {
+                    updateMarksForRemove(offset, length);
+                }
+            }
+        }
+    }
+
+    private static final class Mark implements Position {
+        int offset;
+
+        Mark(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Shrinks code before it goes into a prompt.
+ *
+ * {@link #compact} drops trailing whitespace and alignment runs, strips comments, blanks a leading
+ * license header, blanks repeated import lines in the header (before the first line of other code;
+ * `using` or `use` further down is a statement, not an import), and blanks comment blocks already
+ * seen earlier in the input (as when several files are pasted together). Removed lines become empty
+ * lines instead of disappearing, so
+ * line numbers in the model's answer still match the editor; a run of newlines costs about one token.
+ * Types whose answer is the rewritten code (see {@link AnalysisPipeline#reducesWithModel}) keep their
+ * comments and header, or the rewrite would lose them; they only get the whitespace and import steps.
+ *
+ * {@link Result#fit} then cuts code that is over a model's context budget at a top-level boundary;
+ * the prompt says where the file was cut.
+ *
+ * Settings (system properties):
+ *   devpilot.compact                 run this stage at all (default true; the desktop app has a checkbox)
+ *   devpilot.compact.stripComments   strip comments for report-style analyses (default true)
+ *   devpilot.compact.reserve         tokens kept free for the instructions and the answer (default 4096)
+ *   devpilot.context.MODEL           context window of MODEL in tokens, overriding the table below
+ */
+public final class PromptCompactor {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("devpilot.compact", "true"));
+    static final boolean STRIP_COMMENTS = Boolean.parseBoolean(System.getProperty("devpilot.compact.stripComments", "true"));
+    static final int RESERVE_TOKENS = Integer.getInteger("devpilot.compact.reserve", 4096);
+
+    private static final int DEFAULT_CONTEXT_TOKENS = 32_768;
+    private static final Map<String, Integer> CONTEXT_TOKENS = Map.of(
+            "nvidia/nemotron-nano-9b-v2:free", 128_000,
+            "openai/gpt-4o-mini", 128_000,
+            "openchat/openchat-7b:free", 8_192,
+            "google/gemini-2.0-flash-001", 1_048_576,
+            "x-ai/grok-code-fast-1", 256_000);
+
+    private static final Pattern IMPORT = Pattern.compile(
+            "(?:import\\s|from\\s+\\S+\\s+import\\s|#\\s*include\\s|using\\s|use\\s|package\\s)");
+    private static final Pattern PYTHON_LINE = Pattern.compile(
+            "^\\s*(?:def\\s.*|class\\s.*:|(?:if|elif|else|for|while|try|except|finally|with)\\b.*:|from\\s+\\S+\\s+import\\s.*)\\s*$");
+    private static final Pattern LICENSE = Pattern.compile("(?i)copyright|licen[cs]e|spdx");
+
+    /** Code ready for the prompt, with its token estimate before and after compaction. */
+    public static final class Result {
+        final String text;
+        final int tokensBefore;
+        final int tokensAfter;
+        // Lines of the input, and the first line left out by fit (1-based), or 0 if nothing was cut
+        final int lines;
+        final int omittedFromLine;
+
+        Result(String text, int tokensBefore, int tokensAfter, int lines, int omittedFromLine) {
+            this.text = text;
+            this.tokensBefore = tokensBefore;
+            this.tokensAfter = tokensAfter;
+            this.lines = lines;
+            this.omittedFromLine = omittedFromLine;
+        }
+
+        /**
+         * This code cut to at most `budgetTokens`, ending at the last top-level boundary in the second
+         * half of what fits (a blank line, or the line before an unindented one), else right where
+         * the budget runs out.
+         */
+        public Result fit(int budgetTokens) {
+            if (tokensAfter <= budgetTokens) {
+                return this;
+            }
+            int tokens = 0;
+            int line = 0;
+            int end = 0;
+            // Line index and end offset of the last line that fits, and of the last boundary before it
+            int boundaryLine = -1;
+            int boundaryEnd = 0;
+            while (end < text.length()) {
+                int next = text.indexOf('\n', end);
+                next = next < 0 ? text.length() : next + 1;
+                tokens += estimateTokens(text, end, next);
+                if (tokens > budgetTokens) {
+                    break;
+                }
+                boolean blank = next - end <= 1;
+                boolean beforeUnindented = next < text.length() && !Character.isWhitespace(text.charAt(next));
+                if (blank || beforeUnindented) {
+                    boundaryLine = line;
+                    boundaryEnd = next;
+                }
+                end = next;
+                line++;
+            }
+            if (line == 0) {
+                // Not even the first line fits (minified code, a data blob): cut that line where the budget runs out
+                String kept = cutLine(budgetTokens);
+                return new Result(kept, tokensBefore, estimateTokens(kept, 0, kept.length()), lines, 2);
+            }
+            if (boundaryLine >= line / 2) {
+                line = boundaryLine + 1;
+                end = boundaryEnd;
+            }
+            String kept = text.substring(0, end);
+            return new Result(kept, tokensBefore, estimateTokens(kept, 0, kept.length()), lines, line + 1);
+        }
+
+        // Longest prefix of the text within the budget, found by bisection on its token estimate
+        private String cutLine(int budgetTokens) {
+            int lo = 0;
+            int hi = text.indexOf('\n') < 0 ? text.length() : text.indexOf('\n');
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (estimateTokens(text, 0, mid) <= budgetTokens) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            // Not between the halves of a surrogate pair
+            if (lo > 0 && Character.isHighSurrogate(text.charAt(lo - 1))) {
+                lo--;
+            }
+            return text.substring(0, lo);
+        }
+    }
+
+    private PromptCompactor() {
+    }
+
+    /** Tokens the prompt for this model may spend on code: its context window less the reserve. */
+    public static int budget(String model) {
+        Integer configured = Integer.getInteger("devpilot.context." + model);
+        int context = configured != null ? configured : CONTEXT_TOKENS.getOrDefault(model, DEFAULT_CONTEXT_TOKENS);
+        return Math.max(1024, context - RESERVE_TOKENS);
+    }
+
+    /** The input unchanged, with its token estimate. */
+    public static Result unchanged(String code) {
+        int tokens = estimateTokens(code, 0, code.length());
+        return new Result(code, tokens, tokens, lineCount(code), 0);
+    }
+
+    /**
+     * Names what {@link #compact} does to code of this analysis type, or "none" without compaction, so
+     * answers to differently prepared code are cached apart.
+     */
+    public static String mode(boolean compact, String analysisType) {
+        if (!compact) {
+            return "none";
+        }
+        return STRIP_COMMENTS && AnalysisPipeline.reducesWithModel(analysisType) ? "compact" : "compact-keep-comments";
+    }
+
+    /** Compacts code read straight from the CharSequence; only the compacted text is built. */
+    public static Result compact(CharSequence code, String analysisType) {
+        boolean rewritesCode = !AnalysisPipeline.reducesWithModel(analysisType);
+        boolean hashComments = usesHashComments(code);
+        String cleaned = clean(code, hashComments, STRIP_COMMENTS && !rewritesCode);
+        String deduped = dedupeLines(cleaned, hashComments, !rewritesCode);
+        return new Result(deduped, estimateTokens(code, 0, code.length()), estimateTokens(deduped, 0, deduped.length()), lineCount(code), 0);
+    }
+
+    /**
+     * Rough BPE token count for code: a word costs one token per four characters, a run of
+     * whitespace (indentation, blank lines) one token per sixteen, any other character one token.
+     * Closer than characters / 4 for code whose size is mostly indentation and blank lines. This is
+     * the one estimate every budget goes by: compaction, fitting, chunking and the reduce step.
+     */
+    public static int estimateTokens(CharSequence text) {
+        return estimateTokens(text, 0, text.length());
+    }
+
+    /** {@link #estimateTokens(CharSequence)} for text[from, to). */
+    public static int estimateTokens(CharSequence text, int from, int to) {
+        int tokens = 0;
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            int start = i;
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                while (i < to && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+                    i++;
+                }
+                tokens += (i - start + 3) / 4;
+            } else if (Character.isWhitespace(c)) {
+                while (i < to && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                tokens += (i - start + 15) / 16;
+            } else {
+                i++;
+                tokens++;
+            }
+        }
+        return tokens;
+    }
+
+    private static int lineCount(CharSequence code) {
+        int lines = 1;
+        for (int i = indexOf(code, '\n', 0); i >= 0; i = indexOf(code, '\n', i + 1)) {
+            lines++;
+        }
+        return lines;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence text, String s, int from) {
+        for (int i = indexOf(text, s.charAt(0), from); i >= 0; i = indexOf(text, s.charAt(0), i + 1)) {
+            if (startsWith(text, s, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix, int at) {
+        if (at + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(at + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Python, shell and Ruby comment with '#' and use '//' as an operator; C-family languages the other
+    // way round. The first couple of thousand lines are enough to tell
+    private static boolean usesHashComments(CharSequence code) {
+        int python = 0;
+        int cFamily = 0;
+        int start = 0;
+        for (int lines = 0; lines < 2000 && start < code.length(); lines++) {
+            int end = indexOf(code, '\n', start);
+            end = end < 0 ? code.length() : end;
+            String line = code.subSequence(start, end).toString().stripTrailing();
+            if (PYTHON_LINE.matcher(line).matches()) {
+                python++;
+            } else if (line.endsWith(";") || line.endsWith("{") || line.endsWith("}")) {
+                cFamily++;
+            }
+            start = end + 1;
+        }
+        return python > cFamily;
+    }
+
+    // DSA: one pass of a small lexer. String literals are copied as they are; comments are dropped
+    // (keeping their newlines) when asked; whitespace after the indentation collapses to one space;
+    // trailing whitespace goes
+    private static String clean(CharSequence code, boolean hashComments, boolean stripComments) {
+        StringBuilder out = new StringBuilder(code.length());
+        int n = code.length();
+        int i = 0;
+        while (i < n) {
+            char c = code.charAt(i);
+            if (c == '\n') {
+                trimTrailing(out);
+                out.append('\n');
+                i++;
+            } else if (c == ' ' || c == '\t' || c == '\r') {
+                int end = i;
+                while (end < n && (code.charAt(end) == ' ' || code.charAt(end) == '\t' || code.charAt(end) == '\r')) {
+                    end++;
+                }
+                char previous = out.length() == 0 ? '\n' : out.charAt(out.length() - 1);
+                if (previous == '\n') {
+                    out.append(code, i, end);
+                } else if (previous != ' ' && previous != '\t' && end < n && code.charAt(end) != '\n') {
+                    out.append(' ');
+                }
+                i = end;
+            } else if (stripComments && isCommentStart(code, i, hashComments)) {
+                i = skipComment(code, i, hashComments, out);
+            } else if (c == '"' || c == '\'' || c == '`') {
+                int end = stringEnd(code, i);
+                out.append(code, i, end);
+                i = end;
+            } else {
+                // Copy up to the next character that could start whitespace, a comment or a string
+                int end = i + 1;
+                while (end < n && !isSpecial(code.charAt(end))) {
+                    end++;
+                }
+                out.append(code, i, end);
+                i = end;
+            }
+        }
+        trimTrailing(out);
+        return out.toString();
+    }
+
+    private static boolean isSpecial(char c) {
+        return c <= ' ' || c == '/' || c == '#' || c == '"' || c == '\'' || c == '`';
+    }
+
+    private static boolean isCommentStart(CharSequence code, int i, boolean hashComments) {
+        char c = code.charAt(i);
+        if (hashComments) {
+            // Keep a shebang
+            return c == '#' && !(i == 0 && startsWith(code, "#!", 0));
+        }
+        return c == '/' && i + 1 < code.length() && (code.charAt(i + 1) == '/' || code.charAt(i + 1) == '*');
+    }
+
+    // Index after the comment at i; a block comment leaves one newline per line it spanned
+    private static int skipComment(CharSequence code, int i, boolean hashComments, StringBuilder out) {
+        if (hashComments || code.charAt(i + 1) == '/') {
+            int end = indexOf(code, '\n', i);
+            return end < 0 ? code.length() : end;
+        }
+        int end = indexOf(code, "*/", i + 2);
+        end = end < 0 ? code.length() : end + 2;
+        for (int k = i; k < end; k++) {
+            if (code.charAt(k) == '\n') {
+                trimTrailing(out);
+                out.append('\n');
+            }
+        }
+        return end;
+    }
+
+    // Index after the string literal at i. Triple quotes and backticks may span lines; other quotes
+    // end at the end of the line, so a stray apostrophe (a Rust lifetime, a quote in prose) cannot
+    // swallow the rest of the file
+    private static int stringEnd(CharSequence code, int i) {
+        char quote = code.charAt(i);
+        int n = code.length();
+        if (quote != '`' && startsWith(code, String.valueOf(quote).repeat(3), i)) {
+            int end = indexOf(code, String.valueOf(quote).repeat(3), i + 3);
+            return end < 0 ? n : end + 3;
+        }
+        int k = i + 1;
+        while (k < n) {
+            char c = code.charAt(k);
+            if (c == '\\') {
+                k += 2;
+            } else if (c == quote) {
+                return k + 1;
+            } else if (c == '\n' && quote != '`') {
+                return k;
+            } else {
+                k++;
+            }
+        }
+        return n;
+    }
+
+    private static void trimTrailing(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && (out.charAt(end - 1) == ' ' || out.charAt(end - 1) == '\t' || out.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        out.setLength(end);
+    }
+
+    // Blanks import lines of the header seen before and, for report-style analyses, the license header
+    // and any comment block of three or more lines seen before
+    private static String dedupeLines(String code, boolean hashComments, boolean dropBoilerplate) {
+        String[] lines = code.split("\n", -1);
+        Set<String> imports = new HashSet<>();
+        Set<String> blocks = new HashSet<>();
+        boolean beforeCode = true;
+        // Until the first line that is neither an import nor a comment
+        boolean inHeader = true;
+        int i = 0;
+        while (i < lines.length) {
+            String trimmed = lines[i].strip();
+            int end = dropBoilerplate ? commentBlockEnd(lines, i, hashComments) : i;
+            if (end > i) {
+                String block = String.join("\n", Arrays.copyOfRange(lines, i, end)).strip();
+                boolean header = beforeCode && LICENSE.matcher(block).find();
+                boolean repeated = end - i >= 3 && !blocks.add(block);
+                if (header || repeated) {
+                    for (int k = i; k < end; k++) {
+                        lines[k] = "";
+                    }
+                }
+                beforeCode = false;
+                i = end;
+                continue;
+            }
+            if (!trimmed.isEmpty()) {
+                beforeCode = beforeCode && trimmed.startsWith("#!");
+                boolean isImport = inHeader && IMPORT.matcher(trimmed).lookingAt();
+                inHeader = isImport || isComment(trimmed, hashComments);
+                if (isImport && !imports.add(trimmed)) {
+                    lines[i] = "";
+                }
+            }
+            i++;
+        }
+        return String.join("\n", lines);
+    }
+
+    // A whole-line comment, or the shebang line
+    private static boolean isComment(String trimmed, boolean hashComments) {
+        return hashComments ? trimmed.startsWith("#") : trimmed.startsWith("//") || trimmed.startsWith("/*") || trimmed.startsWith("*") || trimmed.startsWith("#!");
+    }
+
+    // End (exclusive) of the comment block starting at line i: a /* */ comment, or a run of // or #
+    // lines; i itself if no comment starts there
+    private static int commentBlockEnd(String[] lines, int i, boolean hashComments) {
+        String trimmed = lines[i].strip();
+        if (!hashComments && trimmed.startsWith("/*")) {
+            int end = i;
+            while (end < lines.length && !lines[end].contains("*/")) {
+                end++;
+            }
+            // Not a block of its own if code follows the comment on its last line
+            if (end < lines.length && !lines[end].stripTrailing().endsWith("*/")) {
+                return i;
+            }
+            return Math.min(end + 1, lines.length);
+        }
+        String marker = hashComments ? "#" : "//";
+        int end = i;
+        while (end < lines.length && lines[end].strip().startsWith(marker) && !lines[end].startsWith("#!")) {
+            end++;
+        }
+        return end;
+    }
+}
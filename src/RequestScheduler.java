@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of every API call, kept separately for each model:
+ * - a token bucket caps the request rate
+ * - an AIMD limit caps requests in flight: +1/limit per success, halved on 429 or 5xx
+ * - retryable failures (429, 408, 5xx, I/O errors) are retried with exponential backoff and full
+ *   jitter; a Retry-After header on any of those responses holds back every request to that model
+ *   until it expires
+ * - a circuit breaker opens after consecutive 5xx/I/O failures, fails requests fast during the
+ *   cooldown, then lets a single probe through before closing again
+ *
+ * Requests queue per model and are released by {@link #pump} whenever capacity frees up. For streaming
+ * responses the in-flight slot is released once the headers arrive.
+ *
+ * Settings (system properties):
+ *   devpilot.rate.perSecond        sustained requests per second per model (default 2)
+ *   devpilot.rate.burst            token bucket size (default 5)
+ *   devpilot.concurrency.initial   starting in-flight limit per model (default 4)
+ *   devpilot.concurrency.max       in-flight ceiling per model (default 32)
+ *   devpilot.retry.max             retries after the first attempt (default 4)
+ *   devpilot.breaker.failures      consecutive failures that open the breaker (default 5)
+ *   devpilot.breaker.cooldown      seconds the breaker stays open (default 30)
+ */
+public final class RequestScheduler {
+
+    private static final double RATE_PER_SECOND = Double.parseDouble(System.getProperty("devpilot.rate.perSecond", "2"));
+    private static final double BURST = Double.parseDouble(System.getProperty("devpilot.rate.burst", "5"));
+    private static final double INITIAL_LIMIT = Integer.getInteger("devpilot.concurrency.initial", 4);
+    private static final double MAX_LIMIT = Integer.getInteger("devpilot.concurrency.max", 32);
+    private static final int MAX_RETRIES = Integer.getInteger("devpilot.retry.max", 4);
+    private static final int BREAKER_FAILURES = Integer.getInteger("devpilot.breaker.failures", 5);
+    private static final long BREAKER_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(Integer.getInteger("devpilot.breaker.cooldown", 30));
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private static final RequestScheduler SHARED = new RequestScheduler();
+
+    private final Map<String, ModelState> models = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "devpilot-request-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // NEUTRAL: the attempt ended without telling us anything about the provider (cancelled, or a local error)
+    private enum Outcome { SUCCESS, NEUTRAL, THROTTLED, FAILED }
+
+    private static final class ModelState {
+        final String model;
+        final ArrayDeque<Request<?>> queue = new ArrayDeque<>();
+        double tokens = BURST;
+        long lastRefillNanos = System.nanoTime();
+        double limit = INITIAL_LIMIT;
+        int inFlight;
+        long blockedUntilNanos;
+        int consecutiveFailures;
+        long breakerOpenUntilNanos;
+        boolean probeInFlight;
+        boolean pumpScheduled;
+
+        ModelState(String model) {
+            this.model = model;
+        }
+
+        boolean breakerTripped() {
+            return consecutiveFailures >= BREAKER_FAILURES;
+        }
+    }
+
+    private static final class Request<T> {
+        final Runnable started;
+        final Supplier<CompletableFuture<HttpResponse<T>>> send;
+        final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        volatile CompletableFuture<HttpResponse<T>> current;
+        int attempts;
+        boolean probe;
+
+        Request(Runnable started, Supplier<CompletableFuture<HttpResponse<T>>> send) {
+            this.started = started;
+            this.send = send;
+        }
+    }
+
+    private RequestScheduler() {
+    }
+
+    public static RequestScheduler shared() {
+        return SHARED;
+    }
+
+    /**
+     * Queues a request for a model. `send` is called once per attempt and must start a fresh exchange.
+     * The result completes with the first response that is not retried (which may still be a non-200),
+     * or with the last failure once retries run out. Cancelling it cancels the attempt in flight.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> submit(String model, Supplier<CompletableFuture<HttpResponse<T>>> send) {
+        return submit(model, () -> { }, send);
+    }
+
+    /** Like {@link #submit(String, Supplier)}, and runs `started` once, just before the first attempt is sent. */
+    public <T> CompletableFuture<HttpResponse<T>> submit(String model, Runnable started, Supplier<CompletableFuture<HttpResponse<T>>> send) {
+        ModelState state = models.computeIfAbsent(model, ModelState::new);
+        Request<T> request = new Request<>(started, send);
+        request.result.whenComplete((r, ex) -> {
+            CompletableFuture<HttpResponse<T>> current = request.current;
+            if (request.result.isCancelled() && current != null) {
+                current.cancel(true);
+            }
+        });
+        synchronized (state) {
+            state.queue.add(request);
+        }
+        pump(state);
+        return request.result;
+    }
+
+    /** Current in-flight limit for a model, for display. */
+    public double concurrencyLimit(String model) {
+        ModelState state = models.get(model);
+        if (state == null) {
+            return INITIAL_LIMIT;
+        }
+        synchronized (state) {
+            return state.limit;
+        }
+    }
+
+    // Starts every queued request the model's breaker, Retry-After, limit and bucket allow right now
+    private void pump(ModelState state) {
+        List<Request<?>> launch = new ArrayList<>();
+        List<Request<?>> rejected = new ArrayList<>();
+        long wakeAtNanos = 0;
+        synchronized (state) {
+            long now = System.nanoTime();
+            while (!state.queue.isEmpty()) {
+                Request<?> next = state.queue.peek();
+                if (next.result.isDone()) {
+                    state.queue.poll();
+                    continue;
+                }
+                if (state.breakerTripped()) {
+                    if (now < state.breakerOpenUntilNanos) {
+                        rejected.addAll(state.queue);
+                        state.queue.clear();
+                        break;
+                    }
+                    if (state.probeInFlight) {
+                        break;
+                    }
+                }
+                if (now < state.blockedUntilNanos) {
+                    wakeAtNanos = state.blockedUntilNanos;
+                    break;
+                }
+                if (state.inFlight >= Math.max(1, (int) state.limit)) {
+                    break;
+                }
+                state.tokens = Math.min(BURST, state.tokens + (now - state.lastRefillNanos) / 1e9 * RATE_PER_SECOND);
+                state.lastRefillNanos = now;
+                if (state.tokens < 1) {
+                    wakeAtNanos = now + (long) ((1 - state.tokens) / RATE_PER_SECOND * 1e9);
+                    break;
+                }
+                state.tokens -= 1;
+                state.inFlight++;
+                next.probe = state.breakerTripped();
+                state.probeInFlight |= next.probe;
+                launch.add(state.queue.poll());
+            }
+            if (wakeAtNanos != 0 && !state.pumpScheduled) {
+                state.pumpScheduled = true;
+            } else {
+                wakeAtNanos = 0;
+            }
+        }
+
+        if (wakeAtNanos != 0) {
+            timer.schedule(() -> {
+                synchronized (state) {
+                    state.pumpScheduled = false;
+                }
+                pump(state);
+            }, wakeAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        for (Request<?> request : rejected) {
+            request.result.completeExceptionally(new RuntimeException("Too many failures from " + state.model
+                    + "; requests are paused for up to " + TimeUnit.NANOSECONDS.toSeconds(BREAKER_COOLDOWN_NANOS) + " s."));
+        }
+        for (Request<?> request : launch) {
+            start(state, request);
+        }
+    }
+
+    private <T> void start(ModelState state, Request<T> request) {
+        CompletableFuture<HttpResponse<T>> attempt;
+        try {
+            if (request.attempts++ == 0) {
+                request.started.run();
+            }
+            attempt = request.send.get();
+        } catch (RuntimeException ex) {
+            attempt = CompletableFuture.failedFuture(ex);
+        }
+        request.current = attempt;
+        attempt.whenComplete((response, ex) -> finish(state, request, response, ex));
+    }
+
+    private <T> void finish(ModelState state, Request<T> request, HttpResponse<T> response, Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        Outcome outcome = classify(response, cause);
+        // Honoured on any retryable status: a 503 during maintenance sends one just as a 429 does
+        long retryAfterNanos = response != null && outcome.compareTo(Outcome.THROTTLED) >= 0 ? retryAfterNanos(response) : 0;
+
+        boolean retry;
+        synchronized (state) {
+            state.inFlight--;
+            if (request.probe) {
+                state.probeInFlight = false;
+            }
+            switch (outcome) {
+                case SUCCESS:
+                    state.consecutiveFailures = 0;
+                    state.limit = Math.min(MAX_LIMIT, state.limit + 1 / state.limit);
+                    break;
+                case NEUTRAL:
+                    break;
+                case THROTTLED:
+                    state.limit = Math.max(1, state.limit / 2);
+                    break;
+                default:
+                    state.limit = Math.max(1, state.limit / 2);
+                    state.consecutiveFailures++;
+                    if (state.breakerTripped()) {
+                        state.breakerOpenUntilNanos = System.nanoTime() + BREAKER_COOLDOWN_NANOS;
+                    }
+                    break;
+            }
+            if (retryAfterNanos > 0) {
+                state.blockedUntilNanos = Math.max(state.blockedUntilNanos, System.nanoTime() + retryAfterNanos);
+            }
+            retry = outcome.compareTo(Outcome.THROTTLED) >= 0 && request.attempts <= MAX_RETRIES
+                    && !request.result.isDone() && !state.breakerTripped();
+        }
+
+        if (retry) {
+            discard(response);
+            long delayMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(retryAfterNanos), backoffMillis(request.attempts));
+            timer.schedule(() -> {
+                synchronized (state) {
+                    // Retries go to the front so they are not starved by newer requests
+                    state.queue.addFirst(request);
+                }
+                pump(state);
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } else if (response != null) {
+            request.result.complete(response);
+        } else {
+            request.result.completeExceptionally(cause);
+        }
+        pump(state);
+    }
+
+    private static Outcome classify(HttpResponse<?> response, Throwable failure) {
+        // Cancellation and local errors say nothing about the provider, so they leave its limit and breaker alone
+        if (response == null) {
+            return failure instanceof IOException ? Outcome.FAILED : Outcome.NEUTRAL;
+        }
+        int status = response.statusCode();
+        if (status == 429 || status == 408) {
+            return Outcome.THROTTLED;
+        }
+        return status >= 500 ? Outcome.FAILED : Outcome.SUCCESS;
+    }
+
+    // Exponential backoff with full jitter: uniform in [0, min(max, base * 2^(attempt-1))]
+    private static long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    // Retry-After is either delta-seconds or an HTTP-date
+    private static long retryAfterNanos(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.strip())));
+        } catch (NumberFormatException ex) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.strip(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toNanos());
+            } catch (DateTimeParseException parseEx) {
+                return 0;
+            }
+        }
+    }
+
+    // Release a retried response's body (streaming bodies hold the connection open)
+    private static void discard(HttpResponse<?> response) {
+        if (response != null && response.body() instanceof AutoCloseable body) {
+            try {
+                body.close();
+            } catch (Exception ex) {
+                // Nothing more to release
+            }
+        }
+    }
+}
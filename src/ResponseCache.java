@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of AI responses.
+ * Keys are a SHA-256 of (hash of the normalized code, analysis type, model, prompt version, compaction mode). Lookups go through
+ * an in-memory LRU first and then a one-file-per-key disk tier that survives restarts. The LRU is
+ * bounded by entries and by the estimated heap its responses take, so a few very large responses
+ * cannot crowd the heap. The disk tier is bounded too: a hit refreshes the file's modification time,
+ * and once a write takes the tier over either limit the least recently used files are deleted until
+ * it is back under 90% of both, so a run of writes does not rescan the directory each time. The disk
+ * tier is best effort: any I/O failure is treated as a miss.
+ *
+ * Settings (system properties):
+ *   devpilot.cache.dir           disk tier location (default ~/.devpilot/cache)
+ *   devpilot.cache.entries       in-memory LRU capacity (default 256)
+ *   devpilot.cache.memoryBytes   in-memory LRU budget in estimated heap bytes (default 16 MB; also
+ *                                counts against devpilot.memory.maxBytes, see MemoryBudget)
+ *   devpilot.cache.diskEntries   files kept in the disk tier (default 10000)
+ *   devpilot.cache.diskBytes     bytes kept in the disk tier (default 256 MB)
+ */
+public final class ResponseCache {
+
+    private static final String SUFFIX = ".html";
+    // Chars encoded at a time while hashing code
+    private static final int DIGEST_CHARS = 4096;
+
+    private final Path dir;
+    private final MemoryBoundedCache<String, String> memory;
+    private final int maxDiskEntries;
+    private final long maxDiskBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // Size of the disk tier, counted by a scan on the first write and kept up to date after (guarded by this)
+    private boolean diskCounted;
+    private int diskEntries;
+    private long diskBytes;
+
+    public ResponseCache(Path dir, int maxEntries, long maxBytes, int maxDiskEntries, long maxDiskBytes) {
+        this.dir = dir;
+        this.memory = new MemoryBoundedCache<>(maxBytes, maxEntries, MemoryBoundedCache::stringBytes);
+        this.maxDiskEntries = maxDiskEntries;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    public static ResponseCache createDefault() {
+        String location = System.getProperty("devpilot.cache.dir");
+        Path dir = location != null ? Paths.get(location) : Paths.get(System.getProperty("user.home"), ".devpilot", "cache");
+        return new ResponseCache(dir, Integer.getInteger("devpilot.cache.entries", 256),
+                Long.getLong("devpilot.cache.memoryBytes", 16L << 20),
+                Integer.getInteger("devpilot.cache.diskEntries", 10_000),
+                Long.getLong("devpilot.cache.diskBytes", 256L << 20));
+    }
+
+    /**
+     * Builds the cache key from the code's {@link #contentHash}, so code hashed once can be looked up
+     * for several models. `compaction` is {@link PromptCompactor#mode}: an answer about compacted
+     * code was written without seeing what compaction removed, so it is not served for the whole code.
+     */
+    public static String key(String contentHash, String analysisType, String model, int promptVersion, String compaction) {
+        MessageDigest digest = sha256();
+        digest.update(contentHash.getBytes(StandardCharsets.UTF_8));
+        for (String part : new String[]{analysisType, model, Integer.toString(promptVersion), compaction}) {
+            digest.update((byte) 0);
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Hash of the normalized code. Code that differs only in line endings or trailing whitespace has
+     * the same hash; indentation is kept, since in some languages it changes what the code means.
+     */
+    public static String contentHash(CharSequence code) {
+        MessageDigest digest = sha256();
+        digestNormalized(code, digest);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    /**
+     * Feeds the code to the digest as UTF-8 with line endings unified, trailing whitespace dropped on
+     * each line, and blank lines dropped at both ends; the first line's indentation stays. The code is
+     * read in one pass and encoded a buffer at a time, so a large editor snapshot is never copied.
+     */
+    private static void digestNormalized(CharSequence code, MessageDigest digest) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(DIGEST_CHARS);
+        ByteBuffer bytes = ByteBuffer.allocate(DIGEST_CHARS * 3);
+        // Line breaks and whitespace are held back until a later character shows they are not trailing
+        int newlines = 0;
+        int spaceStart = -1;
+        boolean started = false;
+        int n = code.length();
+        for (int i = 0; i < n; i++) {
+            char c = code.charAt(i);
+            if (c == '\n' || c == '\r') {
+                if (c == '\r' && i + 1 < n && code.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                newlines++;
+                spaceStart = -1;
+            } else if (Character.isWhitespace(c)) {
+                if (spaceStart < 0) {
+                    spaceStart = i;
+                }
+            } else {
+                for (int k = started ? 0 : newlines; k < newlines; k++) {
+                    put(chars, '\n', encoder, bytes, digest);
+                }
+                for (int k = spaceStart < 0 ? i : spaceStart; k < i; k++) {
+                    put(chars, code.charAt(k), encoder, bytes, digest);
+                }
+                put(chars, c, encoder, bytes, digest);
+                newlines = 0;
+                spaceStart = -1;
+                started = true;
+            }
+        }
+        encode(chars, encoder, bytes, digest, true);
+    }
+
+    private static void put(CharBuffer chars, char c, CharsetEncoder encoder, ByteBuffer bytes, MessageDigest digest) {
+        if (!chars.hasRemaining()) {
+            encode(chars, encoder, bytes, digest, false);
+        }
+        chars.put(c);
+    }
+
+    // Encodes the buffered chars into the digest; a high surrogate at the end waits for its low half
+    private static void encode(CharBuffer chars, CharsetEncoder encoder, ByteBuffer bytes, MessageDigest digest, boolean end) {
+        chars.flip();
+        encoder.encode(chars, bytes, end);
+        if (end) {
+            encoder.flush(bytes);
+        }
+        bytes.flip();
+        digest.update(bytes);
+        bytes.clear();
+        chars.compact();
+    }
+
+    /** A response found by {@link #getFirst}, with the position of the key it was cached under. */
+    public record Hit(int index, String response) {
+    }
+
+    /** Returns the cached response for a key, or null on a miss. */
+    public String get(String key) {
+        Hit hit = getFirst(List.of(key));
+        return hit == null ? null : hit.response;
+    }
+
+    /**
+     * Returns the first of the keys that has a cached response, or null if none has. Counts as one
+     * lookup in the hit and miss counts however many keys it tries.
+     */
+    public Hit getFirst(List<String> keys) {
+        for (int i = 0; i < keys.size(); i++) {
+            String response = lookup(keys.get(i));
+            if (response != null) {
+                hits.incrementAndGet();
+                return new Hit(i, response);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private String lookup(String key) {
+        String response = memory.get(key);
+        if (response == null) {
+            response = readFromDisk(key);
+            if (response != null) {
+                memory.put(key, response);
+            }
+        }
+        return response;
+    }
+
+    public void put(String key, String response) {
+        memory.put(key, response);
+        writeToDisk(key, response);
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    private Path fileFor(String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    private String readFromDisk(String key) {
+        Path file = fileFor(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            String response = Files.readString(file, StandardCharsets.UTF_8);
+            // Marks the entry as recently used for eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return response;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, String response) {
+        try {
+            Files.createDirectories(dir);
+            // Write to a temp file and rename so a crash never leaves a half-written entry behind
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            Files.writeString(tmp, response, StandardCharsets.UTF_8);
+            Path file = fileFor(key);
+            synchronized (this) {
+                long replaced = Files.isRegularFile(file) ? Files.size(file) : -1;
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (!diskCounted) {
+                    count(listDisk());
+                    diskCounted = true;
+                } else {
+                    diskEntries += replaced < 0 ? 1 : 0;
+                    diskBytes += Files.size(file) - Math.max(0, replaced);
+                }
+                if (diskEntries > maxDiskEntries || diskBytes > maxDiskBytes) {
+                    evict();
+                }
+            }
+        } catch (IOException ex) {
+            // Disk tier is optional; the in-memory copy still serves this session
+        }
+    }
+
+    // DSA: Sort of the whole tier by modification time, run only when a write goes over a limit;
+    // deleting down to 90% leaves room for the next writes before another scan is needed
+    private void evict() throws IOException {
+        List<DiskEntry> entries = listDisk();
+        entries.sort(Comparator.comparingLong(entry -> entry.modifiedMillis));
+        count(entries);
+        long targetBytes = maxDiskBytes / 10 * 9;
+        int targetEntries = maxDiskEntries / 10 * 9;
+        for (DiskEntry entry : entries) {
+            if (diskEntries <= targetEntries && diskBytes <= targetBytes) {
+                break;
+            }
+            if (Files.deleteIfExists(entry.file)) {
+                diskEntries--;
+                diskBytes -= entry.bytes;
+            }
+        }
+    }
+
+    private void count(List<DiskEntry> entries) {
+        diskEntries = entries.size();
+        diskBytes = 0;
+        for (DiskEntry entry : entries) {
+            diskBytes += entry.bytes;
+        }
+    }
+
+    private List<DiskEntry> listDisk() throws IOException {
+        List<DiskEntry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    entries.add(new DiskEntry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                } catch (IOException ex) {
+                    // Deleted by another process since the listing; nothing to count
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static final class DiskEntry {
+        final Path file;
+        final long bytes;
+        final long modifiedMillis;
+
+        DiskEntry(Path file, long bytes, long modifiedMillis) {
+            this.file = file;
+            this.bytes = bytes;
+            this.modifiedMillis = modifiedMillis;
+        }
+    }
+}
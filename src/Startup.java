@@ -0,0 +1,64 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold-start bookkeeping: time to first frame, and the work put off until after it.
+ *
+ * main() calls {@link #begin()} first thing and the frame's root pane calls {@link #framePainted} on every
+ * paint; the first one is recorded as the Metrics "First frame" stage, timed from JVM start so that
+ * class loading and the static initializers that run before main are counted too. Whatever
+ * the first analysis needs but the window does not (the HTTP client and its TLS setup, the HTML parser,
+ * the history index) is started on a background thread from there, so it no longer delays the window.
+ *
+ * With devpilot.startup.exit the app exits once that warm-up is done. cds.sh uses this for the
+ * training run that records which classes go in the class-data-sharing archive.
+ *
+ * Settings (system properties):
+ *   devpilot.startup.log    print startup timings to stderr (default false)
+ *   devpilot.startup.exit   exit after the first frame and the warm-up, for CDS training runs (default false)
+ */
+public final class Startup {
+
+    static final boolean LOG = Boolean.getBoolean("devpilot.startup.log");
+    static final boolean EXIT_AFTER_WARM_UP = Boolean.getBoolean("devpilot.startup.exit");
+
+    private static long mainNanos;
+    // EDT only
+    private static boolean painted;
+
+    private Startup() {
+    }
+
+    public static void begin() {
+        mainNanos = System.nanoTime();
+    }
+
+    /** Called on the EDT after each paint of the main window; only the first one counts. */
+    public static void framePainted(Runnable warmUp) {
+        if (painted) {
+            return;
+        }
+        painted = true;
+        long sinceMainNanos = System.nanoTime() - mainNanos;
+        // Read only now: the management classes take a while to load and the frame is already up
+        long sinceJvmStartMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        Metrics.record(Metrics.Stage.FIRST_FRAME, null, null, TimeUnit.MILLISECONDS.toNanos(sinceJvmStartMillis));
+        if (LOG) {
+            System.err.printf("devpilot startup: first frame %d ms after JVM start, %d ms after main%n",
+                    sinceJvmStartMillis, sinceMainNanos / 1_000_000);
+        }
+        Thread.startVirtualThread(() -> {
+            long warmUpStart = System.nanoTime();
+            try {
+                warmUp.run();
+            } finally {
+                if (LOG) {
+                    System.err.printf("devpilot startup: warm-up %d ms%n", (System.nanoTime() - warmUpStart) / 1_000_000);
+                }
+                if (EXIT_AFTER_WARM_UP) {
+                    System.exit(0);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Batch mode end to end against a stub of the chat-completions API. The surefire configuration
+ * points OPENROUTER_API_URL at the port in devpilot.stub.port.
+ */
+class BatchRunnerTest {
+
+    private static final String ANSWER = "No bugs found in this file.";
+
+    private static HttpServer server;
+    private static final AtomicInteger requests = new AtomicInteger();
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void startStub() throws IOException {
+        int port = Integer.getInteger("devpilot.stub.port", 18765);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            requests.incrementAndGet();
+            byte[] body = ("{\"choices\":[{\"message\":{\"content\":\"" + ANSWER + "\"}}]}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterAll
+    static void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void writesOutputAndSummaryAndResumesOnlyChangedPairs() throws Exception {
+        Path root = Files.createDirectories(dir.resolve("src"));
+        Path out = dir.resolve("out");
+        Files.writeString(root.resolve("A.java"), "class A {\n    int a() { return 1; }\n}\n");
+        Files.createDirectories(root.resolve("pkg"));
+        Files.writeString(root.resolve("pkg/B.java"), "class B {\n    int b() { return 2; }\n}\n");
+
+        assertTrue(run(root, out, AnalysisPipeline.MODELS[0], false));
+        assertEquals(2, requests.getAndSet(0));
+        List<String> summary = Files.readAllLines(out.resolve("summary.jsonl"));
+        assertEquals(2, summary.size());
+        for (String line : summary) {
+            assertTrue(line.contains("\"status\":\"ok\""), line);
+            assertTrue(line.contains("\"model\":\"" + AnalysisPipeline.MODELS[0] + "\""), line);
+        }
+        assertTrue(Files.readString(out.resolve("A.java.find-bugs.html")).contains(ANSWER));
+        assertTrue(Files.readString(out.resolve("pkg/B.java.find-bugs.html")).contains(ANSWER));
+        assertTrue(Files.exists(out.resolve("metrics.json")));
+
+        // Nothing changed: every pair is skipped
+        assertTrue(run(root, out, AnalysisPipeline.MODELS[0], true));
+        assertEquals(0, requests.getAndSet(0));
+
+        // Only the edited file runs again
+        Files.writeString(root.resolve("A.java"), "class A {\n    int a() { return 3; }\n}\n");
+        assertTrue(run(root, out, AnalysisPipeline.MODELS[0], true));
+        assertEquals(1, requests.getAndSet(0));
+
+        // Another model answers a different prompt, so nothing is reused
+        assertTrue(run(root, out, AnalysisPipeline.MODELS[1], true));
+        assertEquals(2, requests.getAndSet(0));
+        assertEquals(5, Files.readAllLines(out.resolve("summary.jsonl")).size());
+    }
+
+    private static boolean run(Path root, Path out, String model, boolean resume) throws Exception {
+        BatchRunner runner = new BatchRunner();
+        List<String> args = new ArrayList<>(List.of("--root", root.toString(), "--out", out.toString(),
+                "--types", "Find Bugs", "--model", model, "--concurrency", "2"));
+        if (resume) {
+            args.add("--resume");
+        }
+        runner.parseArgs(args.toArray(new String[0]));
+        return runner.run();
+    }
+}